@@ -0,0 +1,570 @@
+/******************************************************************************
+ *  A java.util.NavigableMap backed by an AVLTreeST, for handing a symbol
+ *  table to code written against the collections framework.
+ *
+ *  Some terms to keep in mind:
+ *
+ *  - view: A map returned by subMap, headMap, tailMap or descendingMap.  It
+ *  is the same symbol table seen through a window of keys, not a copy.
+ *  Changes made through a view show up in the symbol table and the other
+ *  way around.  Every view is an AVLTreeMap with bounds and a direction.
+ *
+ *  - absolute order: The natural order of the keys.  A descending view
+ *  answers every question by asking the opposite one in absolute order, so
+ *  the bounds are always kept in absolute order.
+ *
+ *  size() counts the keys of a view from the subtree sizes of the symbol
+ *  table, in O(log n).  Since the symbol table gives null values the meaning
+ *  of deletion, this map does not accept null keys or values.  Iterators
+ *  support remove(), but the map must not be changed in any other way while
+ *  an iteration is in progress.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+
+public class AVLTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+    /**
+     * The symbol table holding the pairs.
+     */
+    private final AVLTreeST<K, V> st;
+
+    /**
+     * The bounds of the view in absolute order; a {@code null} bound leaves
+     * that end open.
+     */
+    private final K lo;
+    private final boolean loInclusive;
+    private final K hi;
+    private final boolean hiInclusive;
+
+    /**
+     * Whether the view presents the keys in descending order.
+     */
+    private final boolean descending;
+
+    /**
+     * Initializes an empty map backed by a new symbol table.
+     */
+    public AVLTreeMap() {
+        this(new AVLTreeST<K, V>());
+    }
+
+    /**
+     * Initializes a map backed by the given symbol table.
+     */
+    public AVLTreeMap(AVLTreeST<K, V> st) {
+        if (st == null) throw new IllegalArgumentException("argument to AVLTreeMap() is null");
+        this.st = st;
+        this.lo = null;
+        this.loInclusive = false;
+        this.hi = null;
+        this.hiInclusive = false;
+        this.descending = false;
+    }
+
+    private AVLTreeMap(AVLTreeST<K, V> st, K lo, boolean loInclusive, K hi, boolean hiInclusive, boolean descending) {
+        this.st = st;
+        this.lo = lo;
+        this.loInclusive = loInclusive;
+        this.hi = hi;
+        this.hiInclusive = hiInclusive;
+        this.descending = descending;
+    }
+
+    /*
+     * Range checks, in absolute order.
+     */
+
+    private boolean tooLow(K key) {
+        if (lo == null) return false;
+        int cmp = key.compareTo(lo);
+        return cmp < 0 || (cmp == 0 && !loInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+        if (hi == null) return false;
+        int cmp = key.compareTo(hi);
+        return cmp > 0 || (cmp == 0 && !hiInclusive);
+    }
+
+    private boolean inRange(K key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    /**
+     * Checks whether a key may serve as a new bound of a view of this view.
+     * An exclusive bound may sit exactly on an exclusive bound of this view.
+     */
+    private boolean inRange(K key, boolean inclusive) {
+        if (inclusive) return inRange(key);
+        return (lo == null || key.compareTo(lo) >= 0) && (hi == null || key.compareTo(hi) <= 0);
+    }
+
+    /**
+     * Returns the argument as a key, rejecting {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    private K key(Object key) {
+        if (key == null) throw new NullPointerException("null keys are not supported");
+        return (K) key;
+    }
+
+    /*
+     * Navigation in absolute order, restricted to the view.
+     */
+
+    private Entry<K, V> absLowest() {
+        Entry<K, V> entry = st.entryAbove(lo, loInclusive);
+        return entry == null || tooHigh(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> absHighest() {
+        Entry<K, V> entry = st.entryBelow(hi, hiInclusive);
+        return entry == null || tooLow(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> absCeiling(K key) {
+        if (tooLow(key)) return absLowest();
+        Entry<K, V> entry = st.entryAbove(key, true);
+        return entry == null || tooHigh(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> absHigher(K key) {
+        if (tooLow(key)) return absLowest();
+        Entry<K, V> entry = st.entryAbove(key, false);
+        return entry == null || tooHigh(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> absFloor(K key) {
+        if (tooHigh(key)) return absHighest();
+        Entry<K, V> entry = st.entryBelow(key, true);
+        return entry == null || tooLow(entry.getKey()) ? null : entry;
+    }
+
+    private Entry<K, V> absLower(K key) {
+        if (tooHigh(key)) return absHighest();
+        Entry<K, V> entry = st.entryBelow(key, false);
+        return entry == null || tooLow(entry.getKey()) ? null : entry;
+    }
+
+    private static <K> K keyOf(Entry<K, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    /*
+     * Map operations.
+     */
+
+    public int size() {
+        return st.count(lo, loInclusive, hi, hiInclusive);
+    }
+
+    public boolean isEmpty() {
+        return absLowest() == null;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public V get(Object key) {
+        K k = key(key);
+        if (!inRange(k)) return null;
+        return st.get(k);
+    }
+
+    public V put(K key, V value) {
+        if (key == null) throw new NullPointerException("null keys are not supported");
+        if (value == null) throw new NullPointerException("null values are not supported");
+        if (!inRange(key)) throw new IllegalArgumentException("key out of range");
+        return st.getAndPut(key, value);
+    }
+
+    public V remove(Object key) {
+        K k = key(key);
+        if (!inRange(k)) return null;
+        return st.remove(k);
+    }
+
+    public void clear() {
+        Iterator<K> it = keyIterator(descending);
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /*
+     * Navigation, in the order of the view.
+     */
+
+    public Comparator<? super K> comparator() {
+        return descending ? Collections.reverseOrder() : null;
+    }
+
+    public Entry<K, V> firstEntry() {
+        return descending ? absHighest() : absLowest();
+    }
+
+    public Entry<K, V> lastEntry() {
+        return descending ? absLowest() : absHighest();
+    }
+
+    public K firstKey() {
+        Entry<K, V> entry = firstEntry();
+        if (entry == null) throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    public K lastKey() {
+        Entry<K, V> entry = lastEntry();
+        if (entry == null) throw new NoSuchElementException();
+        return entry.getKey();
+    }
+
+    public Entry<K, V> pollFirstEntry() {
+        Entry<K, V> entry = firstEntry();
+        if (entry != null) st.delete(entry.getKey());
+        return entry;
+    }
+
+    public Entry<K, V> pollLastEntry() {
+        Entry<K, V> entry = lastEntry();
+        if (entry != null) st.delete(entry.getKey());
+        return entry;
+    }
+
+    public Entry<K, V> lowerEntry(K key) {
+        return descending ? absHigher(key(key)) : absLower(key(key));
+    }
+
+    public K lowerKey(K key) {
+        return keyOf(lowerEntry(key));
+    }
+
+    public Entry<K, V> floorEntry(K key) {
+        return descending ? absCeiling(key(key)) : absFloor(key(key));
+    }
+
+    public K floorKey(K key) {
+        return keyOf(floorEntry(key));
+    }
+
+    public Entry<K, V> ceilingEntry(K key) {
+        return descending ? absFloor(key(key)) : absCeiling(key(key));
+    }
+
+    public K ceilingKey(K key) {
+        return keyOf(ceilingEntry(key));
+    }
+
+    public Entry<K, V> higherEntry(K key) {
+        return descending ? absLower(key(key)) : absHigher(key(key));
+    }
+
+    public K higherKey(K key) {
+        return keyOf(higherEntry(key));
+    }
+
+    /*
+     * Views.
+     */
+
+    public NavigableMap<K, V> descendingMap() {
+        return new AVLTreeMap<K, V>(st, lo, loInclusive, hi, hiInclusive, !descending);
+    }
+
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        key(fromKey);
+        key(toKey);
+        int cmp = descending ? toKey.compareTo(fromKey) : fromKey.compareTo(toKey);
+        if (cmp > 0) throw new IllegalArgumentException("fromKey > toKey");
+        if (descending) return restrict(toKey, toInclusive, fromKey, fromInclusive);
+        return restrict(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        key(toKey);
+        if (descending) return restrict(toKey, inclusive, null, false);
+        return restrict(null, false, toKey, inclusive);
+    }
+
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        key(fromKey);
+        if (descending) return restrict(null, false, fromKey, inclusive);
+        return restrict(fromKey, inclusive, null, false);
+    }
+
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Returns a view with the given bounds in absolute order, keeping the
+     * bounds of this view where a new one is {@code null}.
+     */
+    private NavigableMap<K, V> restrict(K newLo, boolean newLoInclusive, K newHi, boolean newHiInclusive) {
+        if (newLo != null && !inRange(newLo, newLoInclusive)) throw new IllegalArgumentException("fromKey out of range");
+        if (newHi != null && !inRange(newHi, newHiInclusive)) throw new IllegalArgumentException("toKey out of range");
+        if (newLo == null) {
+            newLo = lo;
+            newLoInclusive = loInclusive;
+        }
+        if (newHi == null) {
+            newHi = hi;
+            newHiInclusive = hiInclusive;
+        }
+        return new AVLTreeMap<K, V>(st, newLo, newLoInclusive, newHi, newHiInclusive, descending);
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    public Set<K> keySet() {
+        return navigableKeySet();
+    }
+
+    public NavigableSet<K> navigableKeySet() {
+        return new KeySet<K>(this);
+    }
+
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    /*
+     * Iteration.
+     */
+
+    /**
+     * Returns an iterator over the keys of the view, in descending absolute
+     * order if {@code reverse}.
+     */
+    private Iterator<K> keyIterator(boolean reverse) {
+        return new ViewIterator<K>(reverse) {
+            protected Iterator<K> open(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+                return st.keyIterator(lo, loInclusive, hi, hiInclusive, reverse);
+            }
+
+            protected K keyFrom(K key) {
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the pairs of the view, in the order of the
+     * view.
+     */
+    private Iterator<Entry<K, V>> entryIterator() {
+        return new ViewIterator<Entry<K, V>>(descending) {
+            protected Iterator<Entry<K, V>> open(K lo, boolean loInclusive, K hi, boolean hiInclusive) {
+                return st.entryIterator(lo, loInclusive, hi, hiInclusive, descending);
+            }
+
+            protected K keyFrom(Entry<K, V> entry) {
+                return entry.getKey();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the view using an iterator of the symbol table.  Removing
+     * a key restructures the tree, so afterwards the iterator is reopened just
+     * past the removed key, which costs one descent.
+     */
+    private abstract class ViewIterator<T> implements Iterator<T> {
+        private final boolean reverse;
+        private Iterator<T> it;
+        private K last;     // the key last returned, or null
+
+        public ViewIterator(boolean reverse) {
+            this.reverse = reverse;
+            it = open(lo, loInclusive, hi, hiInclusive);
+        }
+
+        protected abstract Iterator<T> open(K lo, boolean loInclusive, K hi, boolean hiInclusive);
+
+        protected abstract K keyFrom(T item);
+
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        public T next() {
+            T item = it.next();
+            last = keyFrom(item);
+            return item;
+        }
+
+        public void remove() {
+            if (last == null) throw new IllegalStateException();
+            st.delete(last);
+            if (reverse) it = open(lo, loInclusive, last, false);
+            else it = open(last, false, hi, hiInclusive);
+            last = null;
+        }
+    }
+
+    /**
+     * The pairs of the view.
+     */
+    private class EntrySet extends AbstractSet<Entry<K, V>> {
+        public Iterator<Entry<K, V>> iterator() {
+            return entryIterator();
+        }
+
+        public int size() {
+            return AVLTreeMap.this.size();
+        }
+
+        public boolean isEmpty() {
+            return AVLTreeMap.this.isEmpty();
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            if (entry.getKey() == null) return false;
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        public boolean remove(Object o) {
+            if (!contains(o)) return false;
+            AVLTreeMap.this.remove(((Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        public void clear() {
+            AVLTreeMap.this.clear();
+        }
+    }
+
+    /**
+     * The keys of a view, answering every question through the view.
+     */
+    private static class KeySet<K extends Comparable<K>> extends AbstractSet<K> implements NavigableSet<K> {
+        private final AVLTreeMap<K, ?> map;
+
+        public KeySet(AVLTreeMap<K, ?> map) {
+            this.map = map;
+        }
+
+        public Iterator<K> iterator() {
+            return map.keyIterator(map.descending);
+        }
+
+        public Iterator<K> descendingIterator() {
+            return map.keyIterator(!map.descending);
+        }
+
+        public int size() {
+            return map.size();
+        }
+
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        public boolean remove(Object o) {
+            return map.remove(o) != null;
+        }
+
+        public void clear() {
+            map.clear();
+        }
+
+        public Comparator<? super K> comparator() {
+            return map.comparator();
+        }
+
+        public K first() {
+            return map.firstKey();
+        }
+
+        public K last() {
+            return map.lastKey();
+        }
+
+        public K lower(K key) {
+            return map.lowerKey(key);
+        }
+
+        public K floor(K key) {
+            return map.floorKey(key);
+        }
+
+        public K ceiling(K key) {
+            return map.ceilingKey(key);
+        }
+
+        public K higher(K key) {
+            return map.higherKey(key);
+        }
+
+        public K pollFirst() {
+            return keyOf(map.pollFirstEntry());
+        }
+
+        public K pollLast() {
+            return keyOf(map.pollLastEntry());
+        }
+
+        public NavigableSet<K> descendingSet() {
+            return map.descendingMap().navigableKeySet();
+        }
+
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return map.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return map.headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return map.tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        public SortedSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
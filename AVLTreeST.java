@@ -29,7 +29,31 @@
 
 package avltree;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import algs13.*;
 import stdlib.*;
@@ -37,11 +61,43 @@ import stdlib.*;
 
 public class AVLTreeST<Key extends Comparable<Key>, Value> {
 
+    /**
+     * An upper bound on the number of nodes on any root-to-leaf path.  The
+     * height of an AVL tree with n nodes is less than 1.44 * log2(n + 2), so
+     * a tree holding up to Integer.MAX_VALUE keys never exceeds 45 levels.
+     */
+    private static final int MAX_DEPTH = 64;
+
     /**
      * The root node.
      */
     private Node root;
 
+    /**
+     * With assertions enabled, the number of mutations checked so far and
+     * how often a full check is made; see {@code setFullCheckInterval}.
+     */
+    private long mutations;
+    private int fullCheckInterval;
+
+    /**
+     * Whether the symbol table is persistent.  A persistent symbol table never
+     * modifies a node once it is reachable from a published root; mutations
+     * copy the nodes they would change instead.
+     */
+    private final boolean persistent;
+
+    /**
+     * The root as of the last completed mutation of a persistent symbol
+     * table.  Other threads read it through {@code snapshot()}.
+     */
+    private volatile Node published;
+
+    /**
+     * The summary kept in every node, or null if none is.
+     */
+    private final Aggregator<Value, Object> aggregator;
+
     /**
      * This class represents a node of the AVL tree.
      */
@@ -52,6 +108,7 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
         private int size;        // number of nodes in subtree
         private Node left;       // left subtree
         private Node right;      // right subtree
+        private Object summary;  // the aggregate of the subtree, if kept
 
         public Node(Key key, Value val, int height, int size) {
             this.key = key;
@@ -65,9 +122,160 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      * Initializes an empty symbol table.
      */
     public AVLTreeST() {
+    	this(false);
+    }
+
+    /**
+     * Initializes an empty symbol table, which is persistent if
+     * {@code persistent} is true.  In a persistent symbol table every
+     * mutation copies the O(log n) nodes on its search path rather than
+     * changing them in place, so that {@code snapshot()} can hand out the
+     * current tree in constant time.  Mutations still have to come from one
+     * thread at a time.
+     */
+    public AVLTreeST(boolean persistent) {
+    	this(persistent, null);
+    }
+
+    /**
+     * Initializes an empty symbol table that keeps, in every node, the
+     * summary given by {@code aggregator} of the values below it, so that
+     * {@code aggregate} can summarize any range of keys in logarithmic
+     * time.  The summaries are maintained by every mutation, at the cost of
+     * one {@code combine} per node whose subtree changes.
+     */
+    public AVLTreeST(Aggregator<? super Value, ?> aggregator) {
+    	this(false, aggregator);
+    }
+
+    /**
+     * Initializes an empty symbol table that is persistent if
+     * {@code persistent} is true and keeps the summaries of
+     * {@code aggregator} unless it is {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public AVLTreeST(boolean persistent, Aggregator<? super Value, ?> aggregator) {
+    	this.persistent = persistent;
+    	this.aggregator = (Aggregator<Value, Object>) aggregator;
     	root = null;
     }
 
+    /**
+     * Returns an immutable view of a persistent symbol table as of its last
+     * completed mutation, in constant time.  The snapshot shares its nodes
+     * with this symbol table and may be read and iterated from any thread
+     * without locking while this symbol table keeps changing.  The snapshot
+     * is itself persistent, so changing it does not affect this one.
+     */
+    public AVLTreeST<Key, Value> snapshot() {
+        if (!persistent) throw new IllegalStateException("snapshot() requires a persistent symbol table");
+        AVLTreeST<Key, Value> st = new AVLTreeST<Key, Value>(true, aggregator);
+        st.root = published;
+        st.published = st.root;
+        return st;
+    }
+
+    /**
+     * Makes the current tree of a persistent symbol table visible to
+     * {@code snapshot()}.  Called once a mutation is complete.
+     */
+    private void publish() {
+        if (persistent) published = root;
+    }
+
+    /**
+     * Returns a node that can be modified in place: the node itself, or a copy
+     * of it in a persistent symbol table.
+     */
+    private Node mutable(Node node) {
+        if (!persistent) return node;
+        Node copy = new Node(node.key, node.val, node.height, node.size);
+        copy.left = node.left;
+        copy.right = node.right;
+        copy.summary = node.summary;
+        return copy;
+    }
+
+    /**
+     * In a persistent symbol table, replaces {@code path[from]} to
+     * {@code path[to - 1]} by copies, linking each copy under the one before
+     * it.  The caller links {@code path[from]} to its parent.
+     */
+    private void copyPath(Node[] path, int from, int to) {
+        if (!persistent) return;
+        for (int i = from; i < to; i++) {
+            Node copy = mutable(path[i]);
+            if (i > from) replaceChild(path[i - 1], path[i], copy);
+            path[i] = copy;
+        }
+    }
+
+    /**
+     * Returns a symbol table holding the given key-value pairs.  The keys must
+     * be in strictly increasing order and {@code values[i]} is associated with
+     * {@code keys[i]}.  The tree is built directly in perfectly balanced shape
+     * in linear time, without any compares beyond checking the order.
+     */
+    public static <Key extends Comparable<Key>, Value> AVLTreeST<Key, Value> fromSorted(Key[] keys, Value[] values) {
+        if (keys == null) throw new IllegalArgumentException("first argument to fromSorted() is null");
+        if (values == null) throw new IllegalArgumentException("second argument to fromSorted() is null");
+        if (keys.length != values.length) throw new IllegalArgumentException("fromSorted() needs as many values as keys");
+        return fromSortedIterator(Arrays.asList(keys).iterator(), Arrays.asList(values).iterator(), keys.length);
+    }
+
+    /**
+     * Returns a symbol table holding the first {@code n} key-value pairs
+     * produced by the two iterators, which are consumed exactly once and in
+     * step.  The keys must come in strictly increasing order; an unsorted or
+     * duplicate key is reported as soon as it is read.
+     */
+    public static <Key extends Comparable<Key>, Value> AVLTreeST<Key, Value> fromSortedIterator(
+            Iterator<Key> keys, Iterator<Value> values, int n) {
+        if (keys == null) throw new IllegalArgumentException("first argument to fromSortedIterator() is null");
+        if (values == null) throw new IllegalArgumentException("second argument to fromSortedIterator() is null");
+        if (n < 0) throw new IllegalArgumentException("third argument to fromSortedIterator() is negative");
+        AVLTreeST<Key, Value> st = new AVLTreeST<Key, Value>();
+        st.root = st.new Builder(keys, values).build(n);
+        assert st.check("fromSorted");
+        return st;
+    }
+
+    /**
+     * Builds a perfectly balanced subtree from sorted input.  The left
+     * subtree is built first so the pairs are consumed in order, and the
+     * root of each subtree is the middle pair, which makes every node's size
+     * and height known as soon as its children are done.
+     */
+    private class Builder {
+        private final Iterator<Key> keys;
+        private final Iterator<Value> values;
+        private Key last;   // the most recently consumed key
+
+        public Builder(Iterator<Key> keys, Iterator<Value> values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        public Node build(int n) {
+            if (n == 0) return null;
+            int leftSize = (n - 1) / 2;
+            Node left = build(leftSize);
+            if (!keys.hasNext() || !values.hasNext()) throw new IllegalArgumentException("sorted input has fewer than the expected number of pairs");
+            Key key = keys.next();
+            Value val = values.next();
+            if (key == null) throw new IllegalArgumentException("sorted input contains a null key");
+            if (val == null) throw new IllegalArgumentException("sorted input contains a null value");
+            if (last != null && last.compareTo(key) >= 0) throw new IllegalArgumentException("sorted input is out of order or repeats a key at " + key);
+            last = key;
+            Node node = new Node(key, val, 0, n);
+            node.left = left;
+            node.right = build(n - 1 - leftSize);
+            node.height = 1 + Math.max(height(node.left), height(node.right));
+            summarize(node);
+            return node;
+        }
+    }
+
     /**
      * Checks whether the symbol table is empty.
      */
@@ -118,14 +326,17 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
     }
 
     /**
-     * Returns value associated with the given key in the subtree or
+     * Returns the node holding the given key in the subtree or {@code null}
+     * if there is no such node.
      */
     private Node get(Node node, Key key) {
-        if (node == null) return null;
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) return get(node.left, key);
-        else if (cmp > 0) return get(node.right, key);
-        else return node;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) node = node.left;
+            else if (cmp > 0) node = node.right;
+            else return node;
+        }
+        return null;
     }
 
     /**
@@ -147,32 +358,117 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
             delete(key);
             return;
         }
-        root = put(root, key, val);
-        assert check();
+        if (root == null) {
+            root = new Node(key, val, 0, 1);
+            summarize(root);
+            publish();
+            return;
+        }
+        Node[] path = newPath();
+        int depth = 0;
+        Node node = root;
+        int cmp;
+        while (true) {
+            cmp = key.compareTo(node.key);
+            path[depth++] = node;
+            if (cmp == 0) break;
+            node = cmp < 0 ? node.left : node.right;
+            if (node == null) break;
+        }
+        copyPath(path, 0, depth);
+        root = path[0];
+        if (cmp == 0) {
+            path[depth - 1].val = val;
+            resummarize(path, depth);
+            publish();
+            return;
+        }
+        Node leaf = new Node(key, val, 0, 1);
+        summarize(leaf);
+        if (cmp < 0) path[depth - 1].left = leaf;
+        else path[depth - 1].right = leaf;
+        retrace(path, depth, 1);
+        publish();
+        assert checkMutation("put", path, depth);
     }
 
     /**
-     * Inserts the key-value pair in the subtree. It overrides the old value
-     * with the new value if the symbol table already contains the specified key
-     * and deletes the specified key (and its associated value) from this symbol
-     * table if the specified value is {@code null}.
+     * Returns a fresh array large enough to hold any root-to-leaf path.
      */
-    private Node put(Node node, Key key, Value val) {
-        if (node == null) return new Node(key, val, 0, 1);
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) {
-            node.left = put(node.left, key, val);
-        }
-        else if (cmp > 0) {
-            node.right = put(node.right, key, val);
+    @SuppressWarnings("unchecked")
+    private Node[] newPath() {
+        return (Node[]) new AVLTreeST.Node[MAX_DEPTH];
+    }
+
+    /**
+     * Recomputes the summary of a node from its value and the summaries of
+     * its children, if summaries are kept.
+     */
+    private void summarize(Node node) {
+        if (aggregator == null) return;
+        node.summary = summaryOf(node);
+    }
+
+    /**
+     * Returns the summary a node should hold, given its value and the
+     * summaries of its children, without storing it.
+     */
+    private Object summaryOf(Node node) {
+        Object summary = aggregator.lift(node.val);
+        if (node.left != null) summary = aggregator.combine(node.left.summary, summary);
+        if (node.right != null) summary = aggregator.combine(summary, node.right.summary);
+        return summary;
+    }
+
+    /**
+     * Recomputes the summaries of the first {@code depth} nodes of a search
+     * path, from the bottom up, after a value below them changed.
+     */
+    private void resummarize(Node[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            summarize(path[i]);
         }
-        else {
-            node.val = val;
-            return node;
+    }
+
+    /**
+     * Walks back up the search path after a node was added below it
+     * ({@code delta} is 1) or removed from below it ({@code delta} is -1).
+     * Every node on the path gets its size adjusted, but heights are only
+     * recomputed and rotations applied until a subtree ends up with the
+     * height it had before the change, since nothing above it can be out of
+     * balance after that point.  A path entry whose subtree is rotated is
+     * replaced by the new root of that subtree.  Summaries, like sizes, are
+     * recomputed all the way up.
+     */
+    private void retrace(Node[] path, int depth, int delta) {
+        boolean rebalancing = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            Node node = path[i];
+            node.size += delta;
+            if (!rebalancing) {
+                summarize(node);
+                continue;
+            }
+            int oldHeight = node.height;
+            node.height = 1 + Math.max(height(node.left), height(node.right));
+            Node subtree = balance(node);
+            if (subtree != node) {
+                replaceChild(i == 0 ? null : path[i - 1], node, subtree);
+                path[i] = subtree;
+            }
+            else summarize(node);
+            if (subtree.height == oldHeight) rebalancing = false;
         }
-        node.size = 1 + size(node.left) + size(node.right);
-        node.height = 1 + Math.max(height(node.left), height(node.right));
-        return balance(node);
+    }
+
+    /**
+     * Makes {@code replacement} take the place of {@code child} under
+     * {@code parent}, or at the root if {@code parent} is {@code null}.
+     */
+    private void replaceChild(Node parent, Node child, Node replacement) {
+        if (parent == null) root = replacement;
+        else if (parent.left == child) parent.left = replacement;
+        else parent.right = replacement;
     }
 
     /**
@@ -209,13 +505,16 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      * Rotates the given subtree to the right.
      */
     private Node rotateRight(Node node) {
-        Node child = node.left;
+        node = mutable(node);
+        Node child = mutable(node.left);
         node.left = child.right;
         child.right = node;
         child.size = node.size;
         node.size = 1 + size(node.left) + size(node.right);
         node.height = 1 + Math.max(height(node.left), height(node.right));
         child.height = 1 + Math.max(height(child.left), height(child.right));
+        summarize(node);
+        summarize(child);
         return child;
     }
 
@@ -224,13 +523,16 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      *
      */
     private Node rotateLeft(Node node) {
-        Node child = node.right;
+        node = mutable(node);
+        Node child = mutable(node.right);
         node.right = child.left;
         child.left = node;
         child.size = node.size;
         node.size = 1 + size(node.left) + size(node.right);
         node.height = 1 + Math.max(height(node.left), height(node.right));
         child.height = 1 + Math.max(height(child.left), height(child.right));
+        summarize(node);
+        summarize(child);
         return child;
     }
 
@@ -240,80 +542,233 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      */
     public void delete(Key key) {
         if (key == null) throw new IllegalArgumentException("argument to delete() is null");
-        if (!contains(key)) return;
-        root = delete(root, key);
-        assert check();
+        Node[] path = newPath();
+        int depth = 0;
+        Node node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) break;
+            path[depth++] = node;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        if (node == null) return;
+        copyPath(path, 0, depth);
+        if (depth > 0) root = path[0];
+        depth = unlink(path, depth, node);
+        retrace(path, depth, -1);
+        publish();
+        assert checkMutation("delete", path, depth);
     }
 
     /**
-     * Removes the specified key and its associated value from the given
-     * subtree.
+     * Detaches {@code node} from the tree, given the search path leading to
+     * it.  A node with two children is replaced by the smallest node of its
+     * right subtree; the path is extended down to where that node was taken
+     * from, and its new length is returned for retracing.  The path leading
+     * to {@code node} must already be modifiable, but {@code node} itself is
+     * left untouched.
      */
-    private Node delete(Node node, Key key) {
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) {
-            node.left = delete(node.left, key);
+    private int unlink(Node[] path, int depth, Node node) {
+        Node parent = depth == 0 ? null : path[depth - 1];
+        if (node.left == null) {
+            replaceChild(parent, node, node.right);
+            return depth;
+        }
+        if (node.right == null) {
+            replaceChild(parent, node, node.left);
+            return depth;
         }
-        else if (cmp > 0) {
-            node.right = delete(node.right, key);
+        int slot = depth++;
+        Node successor = node.right;
+        while (successor.left != null) {
+            path[depth++] = successor;
+            successor = successor.left;
+        }
+        copyPath(path, slot + 1, depth);
+        Node right;
+        if (depth == slot + 1) {
+            right = successor.right;
         }
         else {
-            if (node.left == null) {
-                return node.right;
-            }
-            else if (node.right == null) {
-                return node.left;
-            }
-            else {
-                Node hold = node;
-                node = min(hold.right);
-                node.right = deleteMin(hold.right);
-                node.left = hold.left;
-            }
+            path[depth - 1].left = successor.right;
+            right = path[slot + 1];
         }
-        node.size = 1 + size(node.left) + size(node.right);
-        node.height = 1 + Math.max(height(node.left), height(node.right));
-        return balance(node);
+        Node replacement = mutable(successor);
+        replacement.left = node.left;
+        replacement.right = right;
+        replacement.height = node.height;
+        replacement.size = node.size;
+        path[slot] = replacement;
+        replaceChild(parent, node, replacement);
+        return depth;
     }
 
     /**
-     * Removes the smallest key and associated value from the symbol table.
+     * Associates the value with the key, like {@code put}, and returns the
+     * value it replaces, or {@code null} if the key was not in the symbol
+     * table.
      */
-    public void deleteMin() {
-        if (isEmpty()) throw new NoSuchElementException("called deleteMin() with empty symbol table");
-        root = deleteMin(root);
-        assert check();
+    public Value getAndPut(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to getAndPut() is null");
+        if (val == null) throw new IllegalArgumentException("second argument to getAndPut() is null");
+        return update("getAndPut", key, (k, old) -> val, false);
     }
 
     /**
-     * Removes the smallest key and associated value from the given subtree.
+     * Removes the specified key and its associated value from the symbol table
+     * and returns that value, or {@code null} if the key is not in the symbol
+     * table.
      */
-    private Node deleteMin(Node node) {
-        if (node.left == null) return node.right;
-        node.left = deleteMin(node.left);
-        node.size = 1 + size(node.left) + size(node.right);
-        node.height = 1 + Math.max(height(node.left), height(node.right));
-        return balance(node);
+    public Value remove(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to remove() is null");
+        return update("remove", key, (k, old) -> null, false);
     }
 
     /**
-     * Removes the largest key and associated value from the symbol table.
+     * Associates the value with the key unless the key is already in the
+     * symbol table.  Returns the value that was already there, or
+     * {@code null} if the new pair was inserted.
      */
-    public void deleteMax() {
-        if (isEmpty()) throw new NoSuchElementException("called deleteMax() with empty symbol table");
-        root = deleteMax(root);
-        assert check();
+    public Value putIfAbsent(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to putIfAbsent() is null");
+        if (val == null) throw new IllegalArgumentException("second argument to putIfAbsent() is null");
+        return update("putIfAbsent", key, (k, old) -> old != null ? old : val, false);
     }
 
     /**
-     * Removes the largest key and associated value from the given subtree.
+     * Replaces the value associated with the key, only if the key is in the
+     * symbol table.  Returns the old value, or {@code null} if nothing was
+     * replaced.
      */
-    private Node deleteMax(Node node) {
-        if (node.right == null) return node.left;
-        node.right = deleteMax(node.right);
-        node.size = 1 + size(node.left) + size(node.right);
-        node.height = 1 + Math.max(height(node.left), height(node.right));
-        return balance(node);
+    public Value replace(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to replace() is null");
+        if (val == null) throw new IllegalArgumentException("second argument to replace() is null");
+        return update("replace", key, (k, old) -> old == null ? null : val, false);
+    }
+
+    /**
+     * Returns the value associated with the key.  If there is none, the value
+     * is computed from the key and, unless it is {@code null}, inserted
+     * first.
+     */
+    public Value computeIfAbsent(Key key, Function<? super Key, ? extends Value> mapping) {
+        if (key == null) throw new IllegalArgumentException("first argument to computeIfAbsent() is null");
+        if (mapping == null) throw new IllegalArgumentException("second argument to computeIfAbsent() is null");
+        return update("computeIfAbsent", key, (k, old) -> old != null ? old : mapping.apply(k), true);
+    }
+
+    /**
+     * Associates the key with the value computed from the key and its current
+     * value ({@code null} if there is none) and returns it.  The key is
+     * removed if the computed value is {@code null}.
+     */
+    public Value compute(Key key, BiFunction<? super Key, ? super Value, ? extends Value> remapping) {
+        if (key == null) throw new IllegalArgumentException("first argument to compute() is null");
+        if (remapping == null) throw new IllegalArgumentException("second argument to compute() is null");
+        return update("compute", key, remapping, true);
+    }
+
+    /**
+     * Associates the key with the given value if it is not in the symbol
+     * table, and otherwise with the result of combining its current value
+     * with the given one, which is returned.  The key is removed if the
+     * combined value is {@code null}.  Counters can be kept with
+     * {@code merge(key, 1, Integer::sum)}.
+     */
+    public Value merge(Key key, Value val, BiFunction<? super Value, ? super Value, ? extends Value> remapping) {
+        if (key == null) throw new IllegalArgumentException("first argument to merge() is null");
+        if (val == null) throw new IllegalArgumentException("second argument to merge() is null");
+        if (remapping == null) throw new IllegalArgumentException("third argument to merge() is null");
+        return update("merge", key, (k, old) -> old == null ? val : remapping.apply(old, val), true);
+    }
+
+    /**
+     * Sets the value of the key to the result of {@code remapping}, applied
+     * to the key and its current value, in a single descent.  A {@code null}
+     * result means the key is removed.  The tree is only restructured, and
+     * in a persistent symbol table only copied, when something changes.
+     * Returns the new value if {@code returnNew} is set and the old value
+     * otherwise.  The function must not modify this symbol table.
+     */
+    private Value update(String operation, Key key, BiFunction<? super Key, ? super Value, ? extends Value> remapping, boolean returnNew) {
+        Node[] path = newPath();
+        int depth = 0;
+        Node node = root;
+        int cmp = 0;
+        while (node != null) {
+            cmp = key.compareTo(node.key);
+            if (cmp == 0) break;
+            path[depth++] = node;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        Value old = node == null ? null : node.val;
+        Value val = remapping.apply(key, old);
+        if (val == old) return val;
+        copyPath(path, 0, depth);
+        if (depth > 0) root = path[0];
+        Node parent = depth == 0 ? null : path[depth - 1];
+        if (node == null) {
+            Node leaf = new Node(key, val, 0, 1);
+            summarize(leaf);
+            if (parent == null) root = leaf;
+            else if (cmp < 0) parent.left = leaf;
+            else parent.right = leaf;
+            retrace(path, depth, 1);
+        }
+        else if (val == null) {
+            depth = unlink(path, depth, node);
+            retrace(path, depth, -1);
+        }
+        else {
+            Node changed = mutable(node);
+            changed.val = val;
+            if (changed != node) replaceChild(parent, node, changed);
+            summarize(changed);
+            resummarize(path, depth);
+        }
+        publish();
+        assert checkMutation(operation, path, depth);
+        return returnNew ? val : old;
+    }
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMin() with empty symbol table");
+        Node[] path = newPath();
+        int depth = 0;
+        Node node = root;
+        while (node.left != null) {
+            path[depth++] = node;
+            node = node.left;
+        }
+        copyPath(path, 0, depth);
+        if (depth > 0) root = path[0];
+        replaceChild(depth == 0 ? null : path[depth - 1], node, node.right);
+        retrace(path, depth, -1);
+        publish();
+        assert checkMutation("deleteMin", path, depth);
+    }
+
+    /**
+     * Removes the largest key and associated value from the symbol table.
+     */
+    public void deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMax() with empty symbol table");
+        Node[] path = newPath();
+        int depth = 0;
+        Node node = root;
+        while (node.right != null) {
+            path[depth++] = node;
+            node = node.right;
+        }
+        copyPath(path, 0, depth);
+        if (depth > 0) root = path[0];
+        replaceChild(depth == 0 ? null : path[depth - 1], node, node.left);
+        retrace(path, depth, -1);
+        publish();
+        assert checkMutation("deleteMax", path, depth);
     }
 
     /**
@@ -328,8 +783,8 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      * Returns the node with the smallest key in the subtree.
      */
     private Node min(Node node) {
-        if (node.left == null) return node;
-        return min(node.left);
+        while (node.left != null) node = node.left;
+        return node;
     }
 
     /**
@@ -344,8 +799,92 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      * Returns the node with the largest key in the subtree.
      */
     private Node max(Node node) {
-        if (node.right == null) return node;
-        return max(node.right);
+        while (node.right != null) node = node.right;
+        return node;
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key floor(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to floor() is null");
+        if (isEmpty()) throw new NoSuchElementException("called floor() with empty symbol table");
+        Node node = below(key, true);
+        if (node == null) return null;
+        return node.key;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key ceiling(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to ceiling() is null");
+        if (isEmpty()) throw new NoSuchElementException("called ceiling() with empty symbol table");
+        Node node = above(key, true);
+        if (node == null) return null;
+        return node.key;
+    }
+
+    /**
+     * Returns the node with the largest key less than {@code key}, or less
+     * than or equal to it if {@code inclusive}.  A {@code null} key stands
+     * for one greater than all others.
+     */
+    private Node below(Key key, boolean inclusive) {
+        Node best = null;
+        Node node = root;
+        while (node != null) {
+            int cmp = key == null ? 1 : key.compareTo(node.key);
+            if (cmp > 0 || (cmp == 0 && inclusive)) {
+                best = node;
+                if (cmp == 0) break;
+                node = node.right;
+            }
+            else node = node.left;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the node with the smallest key greater than {@code key}, or
+     * greater than or equal to it if {@code inclusive}.  A {@code null} key
+     * stands for one less than all others.
+     */
+    private Node above(Key key, boolean inclusive) {
+        Node best = null;
+        Node node = root;
+        while (node != null) {
+            int cmp = key == null ? -1 : key.compareTo(node.key);
+            if (cmp < 0 || (cmp == 0 && inclusive)) {
+                best = node;
+                if (cmp == 0) break;
+                node = node.left;
+            }
+            else node = node.right;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the pair with the largest key below {@code key} as described
+     * for {@code below}, or {@code null}.  Used by {@code AVLTreeMap}.
+     */
+    Map.Entry<Key, Value> entryBelow(Key key, boolean inclusive) {
+        Node node = below(key, inclusive);
+        if (node == null) return null;
+        return new AbstractMap.SimpleImmutableEntry<Key, Value>(node.key, node.val);
+    }
+
+    /**
+     * Returns the pair with the smallest key above {@code key} as described
+     * for {@code above}, or {@code null}.  Used by {@code AVLTreeMap}.
+     */
+    Map.Entry<Key, Value> entryAbove(Key key, boolean inclusive) {
+        Node node = above(key, inclusive);
+        if (node == null) return null;
+        return new AbstractMap.SimpleImmutableEntry<Key, Value>(node.key, node.val);
     }
 
     /**
@@ -361,156 +900,1121 @@ public class AVLTreeST<Key extends Comparable<Key>, Value> {
      * Returns the number of keys in the subtree less than key.
      */
     private int rank(Key key, Node node) {
-        if (node == null) return 0;
-        int cmp = key.compareTo(node.key);
-        if (cmp < 0) return rank(key, node.left);
-        else if (cmp > 0) return 1 + size(node.left) + rank(key, node.right);
-        else return size(node.left);
+        int rank = 0;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) node = node.left;
+            else if (cmp > 0) {
+                rank += 1 + size(node.left);
+                node = node.right;
+            }
+            else return rank + size(node.left);
+        }
+        return rank;
     }
 
     /**
-     * Returns all keys in the symbol table.
+     * Returns the number of keys in the symbol table less than {@code key},
+     * or less than or equal to it if {@code inclusive}, in one descent.
      */
-    public Iterable<Key> keys() {
-        return keysInOrder();
+    private int rank(Key key, boolean inclusive) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) node = node.left;
+            else if (cmp > 0) {
+                rank += 1 + size(node.left);
+                node = node.right;
+            }
+            else return rank + size(node.left) + (inclusive ? 1 : 0);
+        }
+        return rank;
     }
 
     /**
-     * Returns all keys in the symbol table following an in-order traversal.
+     * Returns the number of keys between {@code lo} and {@code hi}, where a
+     * {@code null} bound leaves that end of the range open, using two
+     * descents.  Used by {@code AVLTreeMap}.
      */
-    public Iterable<Key> keysInOrder() {
-        Queue<Key> queue = new Queue<Key>();
-        keysInOrder(root, queue);
-        return queue;
+    int count(Key lo, boolean loInclusive, Key hi, boolean hiInclusive) {
+        int upper = hi == null ? size() : rank(hi, hiInclusive);
+        int lower = lo == null ? 0 : rank(lo, !loInclusive);
+        return Math.max(upper - lower, 0);
     }
 
     /**
-     * Adds the keys in the subtree to queue following an in-order traversal.
+     * Returns the key of the given rank, that is, the key with exactly
+     * {@code k} smaller keys in the symbol table.
      */
-    private void keysInOrder(Node node, Queue<Key> queue) {
-        if (node == null) return;
-        keysInOrder(node.left, queue);
-        queue.enqueue(node.key);
-        keysInOrder(node.right, queue);
+    public Key select(int k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (k < leftSize) node = node.left;
+            else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = node.right;
+            }
+            else return node.key;
+        }
     }
 
     /**
-     * Returns all keys in the symbol table following a level-order traversal.
+     * Returns the {@code q}-quantile of the keys, for {@code q} between 0 and 1,
+     * using the nearest-rank definition: the smallest key such that at least a
+     * fraction {@code q} of all keys are less than or equal to it.  The
+     * 0-quantile is the smallest key.
      */
-    public Iterable<Key> keysLevelOrder() {
-        Queue<Key> queue = new Queue<Key>();
-        if (!isEmpty()) {
-            Queue<Node> queue2 = new Queue<Node>();
-            queue2.enqueue(root);
-            while (!queue2.isEmpty()) {
-                Node node = queue2.dequeue();
-                queue.enqueue(node.key);
-                if (node.left != null) {
-                    queue2.enqueue(node.left);
-                }
-                if (node.right != null) {
-                    queue2.enqueue(node.right);
-                }
-            }
-        }
-        return queue;
+    public Key quantile(double q) {
+        if (!(q >= 0.0 && q <= 1.0)) throw new IllegalArgumentException("argument to quantile() is not between 0 and 1: " + q);
+        if (isEmpty()) throw new NoSuchElementException("called quantile() with empty symbol table");
+        int k = (int) Math.ceil(q * size()) - 1;
+        return select(Math.max(k, 0));
     }
 
     /**
-     * Returns all keys in the symbol table in the given range.
+     * Returns the median key, taking the lower of the two middle keys when the
+     * number of keys is even.
      */
-    public Iterable<Key> keys(Key lo, Key hi) {
-        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
-        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
-        Queue<Key> queue = new Queue<Key>();
-        keys(root, queue, lo, hi);
-        return queue;
+    public Key median() {
+        if (isEmpty()) throw new NoSuchElementException("called median() with empty symbol table");
+        return select((size() - 1) / 2);
     }
 
     /**
-     * Adds the keys between {@code lo} and {@code hi} in the subtree
-     * to the {@code queue}.
+     * Returns the keys whose rank is at least {@code from} and less than
+     * {@code to}, in order.  Finding the first and last key takes logarithmic
+     * time; the keys in between are produced lazily.
      */
-    private void keys(Node node, Queue<Key> queue, Key lo, Key hi) {
-        if (node == null) return;
-        int cmplo = lo.compareTo(node.key);
-        int cmphi = hi.compareTo(node.key);
-        if (cmplo < 0) keys(node.left, queue, lo, hi);
-        if (cmplo <= 0 && cmphi >= 0) queue.enqueue(node.key);
-        if (cmphi > 0) keys(node.right, queue, lo, hi);
+    public Iterable<Key> keysByRank(int from, int to) {
+        if (from < 0 || from > to || to > size()) throw new IllegalArgumentException("arguments to keysByRank() are invalid: " + from + ", " + to);
+        if (from == to) return () -> Collections.emptyIterator();
+        return keys(select(from), select(to - 1));
     }
 
     /**
-     * Returns the number of keys in the symbol table in the given range.
+     * Returns all keys in the symbol table.
      */
-    public int size(Key lo, Key hi) {
-        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
-        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
-        if (lo.compareTo(hi) > 0) return 0;
-        if (contains(hi)) return rank(hi) - rank(lo) + 1;
-        else return rank(hi) - rank(lo);
+    public Iterable<Key> keys() {
+        return keysInOrder();
     }
 
     /**
-     * Checks if the AVL tree invariants are fine.
+     * Returns all keys in the symbol table following an in-order traversal.
+     * The keys are produced lazily while iterating, keeping only the nodes on
+     * the current root-to-leaf path.  The symbol table should not be modified
+     * while an iteration is in progress.
      */
-    private boolean check() {
-        if (!isBST()) StdOut.println("Symmetric order not consistent");
-        if (!isAVL()) StdOut.println("AVL property not consistent");
-        if (!isSizeConsistent()) StdOut.println("Subtree counts not consistent");
-        return isBST() && isAVL() && isSizeConsistent();
+    public Iterable<Key> keysInOrder() {
+        return () -> new KeyIterator(null, true, null, true, false);
     }
 
     /**
-     * Checks if AVL property is consistent.
+     * Returns all keys in the symbol table following a level-order traversal.
+     * The keys are produced lazily; the pending queue never holds more than
+     * two levels of the tree at a time.
      */
-    private boolean isAVL() {
-        return isAVL(root);
+    public Iterable<Key> keysLevelOrder() {
+        return () -> new LevelOrderIterator();
     }
 
     /**
-     * Checks if AVL property is consistent in the subtree.
+     * Returns all keys in the symbol table in the given range.  The keys are
+     * produced lazily, in order, without copying the range.
      */
-    private boolean isAVL(Node node) {
-        if (node == null) return true;
-        int bf = balanceFactor(node);
-        if (bf > 1 || bf < -1) return false;
-        return isAVL(node.left) && isAVL(node.right);
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        return () -> new KeyIterator(lo, true, hi, true, false);
     }
 
     /**
-     * Checks if the symmetric order is consistent.
+     * Returns the keys in the symbol table strictly greater than {@code from}
+     * and no greater than {@code hi}.  Passing the last key of one page as
+     * {@code from} resumes a paginated scan with a single descent.
      */
-    private boolean isBST() {
-        return isBST(root, null, null);
+    public Iterable<Key> keysAfter(Key from, Key hi) {
+        if (from == null) throw new IllegalArgumentException("first argument to keysAfter() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keysAfter() is null");
+        return () -> new KeyIterator(from, false, hi, true, false);
     }
 
     /**
-     * Checks if the tree rooted at node is a BST with all keys strictly between
-     * min and max (if min or max is null, treat as empty constraint) Credit:
-     * Bob Dondero's elegant solution
+     * Returns an iterator over the keys between {@code lo} and {@code hi}, in
+     * ascending or descending order.  A {@code null} bound leaves that end of
+     * the range open.  Used by {@code AVLTreeMap}.
      */
-    private boolean isBST(Node node, Key min, Key max) {
-        if (node == null) return true;
-        if (min != null && node.key.compareTo(min) <= 0) return false;
-        if (max != null && node.key.compareTo(max) >= 0) return false;
-        return isBST(node.left, min, node.key) && isBST(node.right, node.key, max);
+    Iterator<Key> keyIterator(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, boolean descending) {
+        return new KeyIterator(lo, loInclusive, hi, hiInclusive, descending);
     }
 
     /**
-     * Checks if size is consistent.
+     * Returns an iterator over the key-value pairs between {@code lo} and
+     * {@code hi}, like {@code keyIterator}.  The entries are snapshots and do
+     * not support {@code setValue}.
      */
-    private boolean isSizeConsistent() {
-        return isSizeConsistent(root);
+    Iterator<Map.Entry<Key, Value>> entryIterator(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, boolean descending) {
+        return new EntryIterator(lo, loInclusive, hi, hiInclusive, descending);
     }
 
     /**
-     * Checks if the size of the subtree is consistent.
+     * Iterates over the nodes between optional bounds, in either order.  The
+     * stack holds the nodes that have not been returned yet and whose
+     * subtree on the far side has not been entered, so it never grows beyond
+     * the height of the tree.
      */
-    private boolean isSizeConsistent(Node node) {
-        if (node == null) return true;
-        if (node.size != size(node.left) + size(node.right) + 1) return false;
-        return isSizeConsistent(node.left) && isSizeConsistent(node.right);
+    private class NodeIterator {
+        private final Node[] stack = newPath();
+        private int depth;
+        private final Key end;                 // the last key allowed, or null
+        private final boolean endInclusive;
+        private final boolean descending;
+
+        public NodeIterator(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, boolean descending) {
+            this.descending = descending;
+            Key start = descending ? hi : lo;
+            boolean startInclusive = descending ? hiInclusive : loInclusive;
+            end = descending ? lo : hi;
+            endInclusive = descending ? loInclusive : hiInclusive;
+            Node node = root;
+            while (node != null) {
+                int cmp;
+                if (start == null) cmp = -1;
+                else if (descending) cmp = node.key.compareTo(start);
+                else cmp = start.compareTo(node.key);
+                if (cmp < 0) {
+                    stack[depth++] = node;
+                    node = near(node);
+                }
+                else if (cmp > 0 || !startInclusive) {
+                    node = far(node);
+                }
+                else {
+                    stack[depth++] = node;
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Returns the child holding the keys that come first.
+         */
+        private Node near(Node node) {
+            return descending ? node.right : node.left;
+        }
+
+        /**
+         * Returns the child holding the keys that come last.
+         */
+        private Node far(Node node) {
+            return descending ? node.left : node.right;
+        }
+
+        public boolean hasNext() {
+            if (depth == 0) return false;
+            if (end == null) return true;
+            Key key = stack[depth - 1].key;
+            int cmp = descending ? end.compareTo(key) : key.compareTo(end);
+            return cmp < 0 || (cmp == 0 && endInclusive);
+        }
+
+        public Node nextNode() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node node = stack[--depth];
+            for (Node x = far(node); x != null; x = near(x)) {
+                stack[depth++] = x;
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Iterates over the keys of the nodes.
+     */
+    private class KeyIterator extends NodeIterator implements Iterator<Key> {
+        public KeyIterator(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, boolean descending) {
+            super(lo, loInclusive, hi, hiInclusive, descending);
+        }
+
+        public Key next() {
+            return nextNode().key;
+        }
+    }
+
+    /**
+     * Iterates over the key-value pairs of the nodes.
+     */
+    private class EntryIterator extends NodeIterator implements Iterator<Map.Entry<Key, Value>> {
+        public EntryIterator(Key lo, boolean loInclusive, Key hi, boolean hiInclusive, boolean descending) {
+            super(lo, loInclusive, hi, hiInclusive, descending);
+        }
+
+        public Map.Entry<Key, Value> next() {
+            Node node = nextNode();
+            return new AbstractMap.SimpleImmutableEntry<Key, Value>(node.key, node.val);
+        }
+    }
+
+    /**
+     * Iterates over keys level by level, enqueuing the children of each node
+     * as it is returned.
+     */
+    private class LevelOrderIterator implements Iterator<Key> {
+        private final Queue<Node> queue = new Queue<Node>();
+
+        public LevelOrderIterator() {
+            if (root != null) queue.enqueue(root);
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node node = queue.dequeue();
+            if (node.left != null) queue.enqueue(node.left);
+            if (node.right != null) queue.enqueue(node.right);
+            return node.key;
+        }
+    }
+
+    /**
+     * Returns a sequential stream of the key-value pairs in the symbol
+     * table, in order of their keys.
+     */
+    public Stream<Map.Entry<Key, Value>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the key-value pairs in the symbol table.
+     * The work is divided by rank into halves of exactly equal size.
+     */
+    public Stream<Map.Entry<Key, Value>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Returns a sequential stream of the keys in the symbol table, in order.
+     */
+    public Stream<Key> keyStream() {
+        return StreamSupport.stream(keySpliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream of the keys in the symbol table.
+     */
+    public Stream<Key> parallelKeyStream() {
+        return StreamSupport.stream(keySpliterator(), true);
+    }
+
+    /**
+     * Returns a spliterator over the key-value pairs in the symbol table.
+     * It covers the tree as it is when the spliterator is created; in a
+     * persistent symbol table that tree is never changed, otherwise the
+     * symbol table should not be modified until the traversal is done.
+     */
+    public Spliterator<Map.Entry<Key, Value>> spliterator() {
+        return new EntrySpliterator(root, 0, size(root));
+    }
+
+    /**
+     * Returns a spliterator over the keys in the symbol table, like
+     * {@code spliterator()}.
+     */
+    public Spliterator<Key> keySpliterator() {
+        return new KeySpliterator(root, 0, size(root));
+    }
+
+    /**
+     * Traverses the nodes whose rank is at least {@code from} and less than
+     * {@code to}.  Splitting hands the lower half of the ranks to a new
+     * spliterator, so both sizes are exact; the start of each half is found
+     * with a descent by subtree sizes the first time it is advanced.
+     */
+    private abstract class NodeSpliterator<T> implements Spliterator<T> {
+        private final Node top;   // the root of the tree being traversed
+        private int from;         // the rank of the next node
+        private final int to;
+        private Node[] stack;     // as in NodeIterator, or null before the first node
+        private int depth;
+
+        public NodeSpliterator(Node top, int from, int to) {
+            this.top = top;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Returns the element to report for a node.
+         */
+        protected abstract T element(Node node);
+
+        /**
+         * Returns a spliterator of the same kind over the given ranks.
+         */
+        protected abstract NodeSpliterator<T> create(Node top, int from, int to);
+
+        /**
+         * Fills the stack with the path to the node of rank {@code from}.
+         */
+        private void seek() {
+            stack = newPath();
+            int k = from;
+            Node node = top;
+            while (node != null) {
+                int leftSize = size(node.left);
+                if (k < leftSize) {
+                    stack[depth++] = node;
+                    node = node.left;
+                }
+                else if (k > leftSize) {
+                    k -= leftSize + 1;
+                    node = node.right;
+                }
+                else {
+                    stack[depth++] = node;
+                    break;
+                }
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) throw new NullPointerException();
+            if (from >= to) return false;
+            if (stack == null) seek();
+            Node node = stack[--depth];
+            for (Node x = node.right; x != null; x = x.left) {
+                stack[depth++] = x;
+            }
+            from++;
+            action.accept(element(node));
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) throw new NullPointerException();
+            while (tryAdvance(action)) { }
+        }
+
+        public Spliterator<T> trySplit() {
+            int mid = (from + to) >>> 1;
+            if (mid == from) return null;
+            NodeSpliterator<T> lower = create(top, from, mid);
+            from = mid;
+            stack = null;
+            depth = 0;
+            return lower;
+        }
+
+        public long estimateSize() {
+            return to - from;
+        }
+
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /**
+     * Reports the keys of the nodes.
+     */
+    private class KeySpliterator extends NodeSpliterator<Key> {
+        public KeySpliterator(Node top, int from, int to) {
+            super(top, from, to);
+        }
+
+        protected Key element(Node node) {
+            return node.key;
+        }
+
+        protected NodeSpliterator<Key> create(Node top, int from, int to) {
+            return new KeySpliterator(top, from, to);
+        }
+
+        public Comparator<? super Key> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Reports the key-value pairs of the nodes, as immutable entries.
+     */
+    private class EntrySpliterator extends NodeSpliterator<Map.Entry<Key, Value>> {
+        public EntrySpliterator(Node top, int from, int to) {
+            super(top, from, to);
+        }
+
+        protected Map.Entry<Key, Value> element(Node node) {
+            return new AbstractMap.SimpleImmutableEntry<Key, Value>(node.key, node.val);
+        }
+
+        protected NodeSpliterator<Map.Entry<Key, Value>> create(Node top, int from, int to) {
+            return new EntrySpliterator(top, from, to);
+        }
+
+        public Comparator<? super Map.Entry<Key, Value>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
+    /**
+     * Returns a read-only copy of the symbol table laid out for fast
+     * searching, in linear time.  The copy keeps the keys in one array in
+     * Eytzinger order rather than in linked nodes; see FrozenST.  Later
+     * changes to this symbol table do not affect it.
+     */
+    @SuppressWarnings("unchecked")
+    public FrozenST<Key, Value> freeze() {
+        Key[] sortedKeys = (Key[]) new Comparable[size()];
+        Value[] sortedVals = (Value[]) new Object[size()];
+        NodeIterator it = new NodeIterator(null, true, null, true, false);
+        for (int i = 0; it.hasNext(); i++) {
+            Node node = it.nextNode();
+            sortedKeys[i] = node.key;
+            sortedVals[i] = node.val;
+        }
+        return new FrozenST<Key, Value>(sortedKeys, sortedVals);
+    }
+
+    /**
+     * Writes the key-value pairs to a snapshot file at {@code path}, in key
+     * order, using the given codecs; see MappedST for the format.  The file
+     * is written under a temporary name, forced to disk and then renamed
+     * over {@code path}, so a crash leaves either the old snapshot or the
+     * new one.
+     */
+    public void writeSnapshot(Path path, Codec<Key> keyCodec, Codec<Value> valueCodec) throws IOException {
+        if (path == null) throw new IllegalArgumentException("first argument to writeSnapshot() is null");
+        if (keyCodec == null) throw new IllegalArgumentException("second argument to writeSnapshot() is null");
+        if (valueCodec == null) throw new IllegalArgumentException("third argument to writeSnapshot() is null");
+        int n = size();
+        int[] index = new int[n + 1];
+        int header = MappedST.HEADER + index.length * Integer.BYTES;
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(header);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            long offset = header;
+            NodeIterator it = new NodeIterator(null, true, null, true, false);
+            for (int i = 0; i <= n; i++) {
+                if (offset > Integer.MAX_VALUE) throw new IOException("snapshot of " + n + " pairs exceeds 2 GB");
+                index[i] = (int) offset;
+                if (i == n) break;
+                Node node = it.nextNode();
+                byte[] key = keyCodec.encode(node.key);
+                byte[] val = valueCodec.encode(node.val);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(val.length);
+                out.write(val);
+                offset += 2 * Integer.BYTES + key.length + val.length;
+            }
+            out.flush();
+            ByteBuffer head = ByteBuffer.allocate(header);
+            head.putInt(MappedST.MAGIC).putInt(n);
+            for (int i = 0; i <= n; i++) head.putInt(index[i]);
+            head.flip();
+            while (head.hasRemaining()) channel.write(head, head.position());
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens a snapshot file written by {@code writeSnapshot} as a read-only
+     * symbol table, in constant time.  The file is memory-mapped and queries
+     * read from it directly, decoding only the keys they compare and the
+     * values they return.
+     */
+    public static <Key extends Comparable<Key>, Value> MappedST<Key, Value> openMapped(
+            Path path, Codec<Key> keyCodec, Codec<Value> valueCodec) throws IOException {
+        if (path == null) throw new IllegalArgumentException("first argument to openMapped() is null");
+        if (keyCodec == null) throw new IllegalArgumentException("second argument to openMapped() is null");
+        if (valueCodec == null) throw new IllegalArgumentException("third argument to openMapped() is null");
+        return MappedST.open(path, keyCodec, valueCodec);
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Returns the summary of all values in the symbol table, in key order.
+     * The aggregator must be the one the symbol table was created with.
+     */
+    public <A> A aggregate(Aggregator<? super Value, A> aggregator) {
+        checkAggregator(aggregator, "aggregate");
+        if (root == null) return aggregator.identity();
+        return summary(root);
+    }
+
+    /**
+     * Returns the summary of the values whose keys are in the given range,
+     * in key order.  The aggregator must be the one the symbol table was
+     * created with.  The search paths for {@code lo} and {@code hi} split
+     * at some node; below it, every subtree hanging inside the range
+     * contributes its stored summary whole, so this takes time proportional
+     * to the height of the tree rather than to the number of keys in range.
+     */
+    public <A> A aggregate(Aggregator<? super Value, A> aggregator, Key lo, Key hi) {
+        checkAggregator(aggregator, "aggregate");
+        if (lo == null) throw new IllegalArgumentException("second argument to aggregate() is null");
+        if (hi == null) throw new IllegalArgumentException("third argument to aggregate() is null");
+        Node x = root;
+        while (x != null) {
+            if (hi.compareTo(x.key) < 0) x = x.left;
+            else if (lo.compareTo(x.key) > 0) x = x.right;
+            else break;
+        }
+        if (x == null) return aggregator.identity();
+        A lower = aggregator.identity();
+        for (Node y = x.left; y != null; ) {
+            if (lo.compareTo(y.key) <= 0) {
+                lower = aggregator.combine(aggregator.combine(aggregator.lift(y.val), summary(y.right)), lower);
+                y = y.left;
+            }
+            else y = y.right;
+        }
+        A upper = aggregator.identity();
+        for (Node y = x.right; y != null; ) {
+            if (hi.compareTo(y.key) >= 0) {
+                upper = aggregator.combine(upper, aggregator.combine(summary(y.left), aggregator.lift(y.val)));
+                y = y.right;
+            }
+            else y = y.left;
+        }
+        return aggregator.combine(aggregator.combine(lower, aggregator.lift(x.val)), upper);
+    }
+
+    /**
+     * Returns the summary stored in a subtree, which may be empty.
+     */
+    @SuppressWarnings("unchecked")
+    private <A> A summary(Node node) {
+        if (node == null) return (A) aggregator.identity();
+        return (A) node.summary;
+    }
+
+    /**
+     * Throws unless {@code aggregator} is the one whose summaries the nodes
+     * keep.
+     */
+    private void checkAggregator(Aggregator<?, ?> aggregator, String method) {
+        if (aggregator == null) throw new IllegalArgumentException("first argument to " + method + "() is null");
+        if (aggregator != this.aggregator) throw new IllegalArgumentException("symbol table does not keep the summaries of this aggregator");
+    }
+
+    /**
+     * Removes all keys greater than or equal to {@code key} from this symbol
+     * table and returns them, with their values, as a new symbol table.  Both
+     * halves are obtained by cutting and re-joining the tree along the search
+     * path for {@code key}, which takes time proportional to its height.
+     */
+    public AVLTreeST<Key, Value> split(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to split() is null");
+        Split parts = split(root, key);
+        AVLTreeST<Key, Value> upper = new AVLTreeST<Key, Value>(persistent, aggregator);
+        root = parts.left;
+        upper.root = parts.match == null ? parts.right : join(null, parts.match, parts.right);
+        publish();
+        upper.publish();
+        assert checkBulk("split", upper);
+        return upper;
+    }
+
+    /**
+     * Returns a symbol table holding the pairs of {@code left}, the given
+     * pair and the pairs of {@code right}, in time proportional to the
+     * difference of their heights.  Every key in {@code left} must be less
+     * than {@code key} and every key in {@code right} greater.  Both argument
+     * symbol tables are left empty.  The result is persistent if either of
+     * them is.
+     */
+    public static <Key extends Comparable<Key>, Value> AVLTreeST<Key, Value> join(
+            AVLTreeST<Key, Value> left, Key key, Value val, AVLTreeST<Key, Value> right) {
+        if (left == null) throw new IllegalArgumentException("first argument to join() is null");
+        if (key == null) throw new IllegalArgumentException("second argument to join() is null");
+        if (val == null) throw new IllegalArgumentException("third argument to join() is null");
+        if (right == null) throw new IllegalArgumentException("fourth argument to join() is null");
+        if (left == right && !left.isEmpty()) throw new IllegalArgumentException("cannot join a symbol table with itself");
+        if (left.aggregator != right.aggregator) throw new IllegalArgumentException("cannot join symbol tables with different aggregators");
+        if (!left.isEmpty() && left.max().compareTo(key) >= 0) throw new IllegalArgumentException("keys of the left symbol table must be less than the join key");
+        if (!right.isEmpty() && right.min().compareTo(key) <= 0) throw new IllegalArgumentException("keys of the right symbol table must be greater than the join key");
+        AVLTreeST<Key, Value> st = new AVLTreeST<Key, Value>(left.persistent || right.persistent, left.aggregator);
+        st.root = st.join(left.root, st.new Node(key, val, 0, 1), right.root);
+        left.root = null;
+        right.root = null;
+        left.publish();
+        right.publish();
+        st.publish();
+        assert st.checkBulk("join", null);
+        return st;
+    }
+
+    /**
+     * Removes every key in the range [{@code lo}, {@code hi}] from this
+     * symbol table and returns how many there were.  The range is cut out
+     * of the tree with two splits and the remainder joined back together,
+     * so the time taken is proportional to the height of the tree and not
+     * to the number of keys removed.
+     */
+    public int deleteRange(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to deleteRange() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to deleteRange() is null");
+        int n = size(cutRange(lo, hi));
+        publish();
+        assert checkBulk("deleteRange", null);
+        return n;
+    }
+
+    /**
+     * Removes every key in the range [{@code lo}, {@code hi}] from this
+     * symbol table and returns them, with their values, as a new symbol
+     * table, in time proportional to the height of the tree.  The new symbol
+     * table is persistent if this one is.
+     */
+    public AVLTreeST<Key, Value> extractRange(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to extractRange() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to extractRange() is null");
+        AVLTreeST<Key, Value> range = new AVLTreeST<Key, Value>(persistent, aggregator);
+        range.root = cutRange(lo, hi);
+        publish();
+        range.publish();
+        assert checkBulk("extractRange", range);
+        return range;
+    }
+
+    /**
+     * Detaches the subtree holding the keys in [{@code lo}, {@code hi}] and
+     * joins the keys on either side of it back into the root.  Returns the
+     * detached subtree.
+     */
+    private Node cutRange(Key lo, Key hi) {
+        if (lo.compareTo(hi) > 0) return null;
+        Split below = split(root, lo);
+        Split above = split(below.right, hi);
+        Node range = below.match == null ? above.left : join(null, below.match, above.left);
+        if (above.match != null) range = join(range, above.match, null);
+        root = join(below.left, above.right);
+        return range;
+    }
+
+    /**
+     * Adds every key-value pair of {@code that} to this symbol table.  Where
+     * both contain a key, the value from {@code that} replaces the old one.
+     * The symbol table {@code that} is left empty.
+     */
+    public void union(AVLTreeST<Key, Value> that) {
+        if (that == null) throw new IllegalArgumentException("argument to union() is null");
+        if (that.persistent && !persistent) throw new IllegalArgumentException("cannot combine a persistent symbol table into a non-persistent one");
+        if (that.aggregator != aggregator) throw new IllegalArgumentException("cannot combine symbol tables with different aggregators");
+        if (that == this) return;
+        root = combine(UNION, root, that.root, false);
+        that.root = null;
+        publish();
+        that.publish();
+        assert checkBulk("union", null);
+    }
+
+    /**
+     * Inserts a batch of key-value pairs into the symbol table, overwriting
+     * the old values of keys that are already present.  The keys must be in
+     * strictly increasing order and {@code values[i]} is associated with
+     * {@code keys[i]}.  The batch is built into a balanced tree in linear
+     * time and merged into this one with {@code union}, so a batch of m keys
+     * costs O(m log(n/m + 1)) rather than m separate puts from the root, and
+     * large batches are merged in parallel.  A batch that is small next to
+     * the tree is cheaper to insert one key at a time, and is.
+     */
+    public void putAll(Key[] keys, Value[] values) {
+        if (keys == null) throw new IllegalArgumentException("first argument to putAll() is null");
+        if (values == null) throw new IllegalArgumentException("second argument to putAll() is null");
+        if (keys.length != values.length) throw new IllegalArgumentException("putAll() needs as many values as keys");
+        if ((long) keys.length * BATCH_RATIO < size()) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) throw new IllegalArgumentException("sorted input contains a null key");
+                if (values[i] == null) throw new IllegalArgumentException("sorted input contains a null value");
+                if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0) throw new IllegalArgumentException("sorted input is out of order or repeats a key at " + keys[i]);
+            }
+            for (int i = 0; i < keys.length; i++) put(keys[i], values[i]);
+            return;
+        }
+        Node batch = new Builder(Arrays.asList(keys).iterator(), Arrays.asList(values).iterator()).build(keys.length);
+        root = combine(UNION, root, batch, false);
+        publish();
+        assert checkBulk("putAll", null);
+    }
+
+    /**
+     * Removes from this symbol table every key that is not in {@code that}.
+     * The symbol table {@code that} is left empty.
+     */
+    public void intersection(AVLTreeST<Key, Value> that) {
+        if (that == null) throw new IllegalArgumentException("argument to intersection() is null");
+        if (that.persistent && !persistent) throw new IllegalArgumentException("cannot combine a persistent symbol table into a non-persistent one");
+        if (that.aggregator != aggregator) throw new IllegalArgumentException("cannot combine symbol tables with different aggregators");
+        if (that == this) return;
+        root = combine(INTERSECTION, root, that.root, false);
+        that.root = null;
+        publish();
+        that.publish();
+        assert checkBulk("intersection", null);
+    }
+
+    /**
+     * Removes from this symbol table every key that is in {@code that}.  The
+     * symbol table {@code that} is left empty.
+     */
+    public void difference(AVLTreeST<Key, Value> that) {
+        if (that == null) throw new IllegalArgumentException("argument to difference() is null");
+        if (that.persistent && !persistent) throw new IllegalArgumentException("cannot combine a persistent symbol table into a non-persistent one");
+        if (that.aggregator != aggregator) throw new IllegalArgumentException("cannot combine symbol tables with different aggregators");
+        if (that == this) {
+            root = null;
+            publish();
+            return;
+        }
+        root = combine(DIFFERENCE, root, that.root, false);
+        that.root = null;
+        publish();
+        that.publish();
+        assert checkBulk("difference", null);
+    }
+
+    /**
+     * The set operations performed by {@code combine}.
+     */
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    /**
+     * Below this many nodes in the two trees together a set operation is not
+     * worth splitting into parallel tasks.
+     */
+    private static final int PARALLEL_CUTOFF = 1 << 14;
+
+    /**
+     * When the tree has more than this many times as many keys as a batch
+     * given to {@code putAll}, separate puts beat splitting the tree around
+     * every key of the batch.  Timed on one core with 20 million keys,
+     * batches of 1k to 1M keys spread over the table went in 1.4 to 2.5
+     * times faster as puts, and the merge only won with a batch of 5M; with
+     * 1 or 2 million keys it took a batch of a quarter to all of the table.
+     */
+    private static final int BATCH_RATIO = 4;
+
+    /**
+     * Combines two subtrees into one following the given set operation.  The
+     * first tree is split around the root key of the second, the two halves
+     * are combined with the matching children, and the results are joined
+     * again.  Since the two recursive calls work on disjoint nodes, large
+     * ones run in parallel on the common fork-join pool; {@code inPool} tells
+     * whether the call is already part of a fork-join task.
+     */
+    private Node combine(int op, Node t1, Node t2, boolean inPool) {
+        if (t1 == null) return op == UNION ? t2 : null;
+        if (t2 == null) return op == INTERSECTION ? null : t1;
+        boolean parallel = size(t1) + size(t2) >= PARALLEL_CUTOFF;
+        if (parallel && !inPool) {
+            return ForkJoinPool.commonPool().invoke(new SetOperation(op, t1, t2));
+        }
+        Node left2 = t2.left;
+        Node right2 = t2.right;
+        Split parts = split(t1, t2.key);
+        Node left, right;
+        if (parallel) {
+            SetOperation task = new SetOperation(op, parts.left, left2);
+            task.fork();
+            right = combine(op, parts.right, right2, true);
+            left = task.join();
+        }
+        else {
+            left = combine(op, parts.left, left2, inPool);
+            right = combine(op, parts.right, right2, inPool);
+        }
+        if (op == UNION) return join(left, t2, right);
+        if (op == INTERSECTION && parts.match != null) return join(left, parts.match, right);
+        return join(left, right);
+    }
+
+    /**
+     * One half of a parallel set operation.
+     */
+    private class SetOperation extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+        private final int op;
+        private final Node t1;
+        private final Node t2;
+
+        public SetOperation(int op, Node t1, Node t2) {
+            this.op = op;
+            this.t1 = t1;
+            this.t2 = t2;
+        }
+
+        protected Node compute() {
+            return combine(op, t1, t2, true);
+        }
+    }
+
+    /**
+     * The result of splitting a subtree around a key: the nodes with smaller
+     * keys, the node holding the key itself (if any) and the nodes with
+     * greater keys.
+     */
+    private class Split {
+        private final Node left;
+        private final Node match;
+        private final Node right;
+
+        public Split(Node left, Node match, Node right) {
+            this.left = left;
+            this.match = match;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Splits the subtree around the given key.  The nodes hanging off the
+     * search path are re-joined on either side on the way back up; since the
+     * heights of the trees being joined grow along the way, the total cost
+     * stays proportional to the height of the subtree.  Nodes are only
+     * changed by {@code join}, which copies them in a persistent symbol
+     * table.
+     */
+    private Split split(Node node, Key key) {
+        if (node == null) return new Split(null, null, null);
+        int cmp = key.compareTo(node.key);
+        if (cmp == 0) return new Split(node.left, node, node.right);
+        if (cmp < 0) {
+            Split parts = split(node.left, key);
+            return new Split(parts.left, parts.match, join(parts.right, node, node.right));
+        }
+        Split parts = split(node.right, key);
+        return new Split(join(node.left, node, parts.left), parts.match, parts.right);
+    }
+
+    /**
+     * Joins two subtrees and a middle node whose key lies between them into
+     * a single AVL tree.  The shorter subtree is hung, together with the
+     * middle node, off the spine of the taller one at the level where the
+     * heights match, and the spine is rebalanced on the way back up.
+     */
+    private Node join(Node left, Node middle, Node right) {
+        if (height(left) > height(right) + 1) {
+            left = mutable(left);
+            left.right = join(left.right, middle, right);
+            update(left);
+            return balance(left);
+        }
+        if (height(right) > height(left) + 1) {
+            right = mutable(right);
+            right.left = join(left, middle, right.left);
+            update(right);
+            return balance(right);
+        }
+        middle = mutable(middle);
+        middle.left = left;
+        middle.right = right;
+        update(middle);
+        return middle;
+    }
+
+    /**
+     * Joins two subtrees where every key in the first is less than every key
+     * in the second.
+     */
+    private Node join(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        Node middle = min(right);
+        return join(left, middle, removeMin(right));
+    }
+
+    /**
+     * Removes the node with the smallest key from the subtree.
+     */
+    private Node removeMin(Node node) {
+        if (node.left == null) return node.right;
+        node = mutable(node);
+        node.left = removeMin(node.left);
+        update(node);
+        return balance(node);
+    }
+
+    /**
+     * Recomputes the size, height and summary of a node from its children.
+     */
+    private void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        summarize(node);
+    }
+
+    /**
+     * Sets how often the mutations checked under assertions verify the whole
+     * tree.  With assertions enabled, put, delete, deleteMin and deleteMax
+     * normally check only the nodes on the path they changed, and split,
+     * join, the range and set operations and putAll only the roots they
+     * leave, which keeps them as fast as they are without assertions; every
+     * {@code interval}-th of them also checks the whole tree.  An interval of 0, the default, never does.
+     */
+    public void setFullCheckInterval(int interval) {
+        if (interval < 0) throw new IllegalArgumentException("argument to setFullCheckInterval() is negative");
+        fullCheckInterval = interval;
+    }
+
+    /**
+     * Checks the invariants after a mutation that changed the nodes on the
+     * given path.  Rotations only move nodes between a path node and its
+     * children, so checking those and the root covers everything that was
+     * touched, except for symmetric order beyond a node's own children.
+     */
+    private boolean checkMutation(String operation, Node[] path, int depth) {
+        mutations++;
+        if (fullCheckInterval > 0 && mutations % fullCheckInterval == 0) return check(operation);
+        checkNode(operation, root);
+        for (int i = 0; i < depth; i++) {
+            checkNode(operation, path[i]);
+            checkNode(operation, path[i].left);
+            checkNode(operation, path[i].right);
+        }
+        return true;
+    }
+
+    /**
+     * Checks the invariants after a bulk mutation that left this symbol
+     * table and {@code other}, unless it is null, changed.  The nodes such a
+     * mutation rebuilt along the paths where it cut and joined the trees are
+     * not recorded, so only the roots are checked, except on the mutations
+     * that check the whole tree.
+     */
+    private boolean checkBulk(String operation, AVLTreeST<Key, Value> other) {
+        mutations++;
+        if (fullCheckInterval > 0 && mutations % fullCheckInterval == 0) {
+            return check(operation) && (other == null || other.check(operation));
+        }
+        checkNode(operation, root);
+        if (other != null) other.checkNode(operation, other.root);
+        return true;
+    }
+
+    /**
+     * Checks if the AVL tree invariants are fine, throwing an
+     * {@code InvariantViolation} that describes the first broken one.
+     */
+    private boolean check(String operation) {
+        check(operation, root, null, null);
+        return true;
+    }
+
+    /**
+     * Checks the subtree, whose keys must all lie strictly between min and
+     * max (if min or max is null, treat as empty constraint).  Credit for the
+     * bounds: Bob Dondero's elegant solution
+     */
+    private void check(String operation, Node node, Key min, Key max) {
+        if (node == null) return;
+        if (min != null && node.key.compareTo(min) <= 0) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.SYMMETRIC_ORDER, node.key, "key is not greater than ancestor key " + min);
+        }
+        if (max != null && node.key.compareTo(max) >= 0) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.SYMMETRIC_ORDER, node.key, "key is not less than ancestor key " + max);
+        }
+        checkNode(operation, node);
+        check(operation, node.left, min, node.key);
+        check(operation, node.right, node.key, max);
+    }
+
+    /**
+     * Checks the invariants that can be seen from a node and its children.
+     */
+    private void checkNode(String operation, Node node) {
+        if (node == null) return;
+        if (node.left != null && node.left.key.compareTo(node.key) >= 0) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.SYMMETRIC_ORDER, node.key, "left child has key " + node.left.key);
+        }
+        if (node.right != null && node.right.key.compareTo(node.key) <= 0) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.SYMMETRIC_ORDER, node.key, "right child has key " + node.right.key);
+        }
+        int size = 1 + size(node.left) + size(node.right);
+        if (node.size != size) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.SIZE, node.key, "size is " + node.size + ", expected " + size);
+        }
+        int height = 1 + Math.max(height(node.left), height(node.right));
+        if (node.height != height) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.HEIGHT, node.key, "height is " + node.height + ", expected " + height);
+        }
+        int bf = balanceFactor(node);
+        if (bf > 1 || bf < -1) {
+            throw new InvariantViolation(operation, InvariantViolation.Kind.AVL_PROPERTY, node.key, "balance factor is " + bf);
+        }
+        if (aggregator != null) {
+            // The node may be shared with published snapshots, so it is only read.
+            Object expected = summaryOf(node);
+            if (!aggregator.same(node.summary, expected)) {
+                throw new InvariantViolation(operation, InvariantViolation.Kind.SUMMARY, node.key, "summary is " + node.summary + ", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Thrown, with assertions enabled, when an operation leaves the tree
+     * with a broken invariant.  It records which operation, which invariant
+     * and the key of the node where the problem was found.
+     */
+    public static class InvariantViolation extends AssertionError {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The invariants that are checked.
+         */
+        public enum Kind { SYMMETRIC_ORDER, AVL_PROPERTY, SIZE, HEIGHT, SUMMARY }
+
+        private final String operation;
+        private final Kind kind;
+        private final Object key;
+
+        public InvariantViolation(String operation, Kind kind, Object key, String detail) {
+            super(kind + " violated at key " + key + " after " + operation + "(): " + detail);
+            this.operation = operation;
+            this.kind = kind;
+            this.key = key;
+        }
+
+        /**
+         * Returns the name of the operation after which the problem was found.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * Returns the invariant that does not hold.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the key of the node where the problem was found.
+         */
+        public Object getKey() {
+            return key;
+        }
     }
 
     /*
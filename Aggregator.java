@@ -0,0 +1,136 @@
+/******************************************************************************
+ *  The interface describes a summary of values that AVLTreeST can keep in
+ *  every node, so that the summary of any key range is found in
+ *  logarithmic time by AVLTreeST.aggregate().
+ *
+ *  The summaries must form a monoid: combine() has to be associative and
+ *  identity() has to leave any summary unchanged when combined with it.
+ *  combine() need not be commutative; its arguments always come in key
+ *  order.  Summaries should be immutable, since nodes share them.
+ *
+ *  When assertions are enabled, AVLTreeST checks each stored summary
+ *  against one recomputed from the node's children with same(), which
+ *  uses equals() unless overridden.  Summaries without value equality,
+ *  such as arrays, need an aggregator that overrides same(), for example
+ *  one built by the four-argument of().
+ *
+ *  Aggregators for sums, counts, minimums and maximums are provided, and
+ *  of() builds one from its parts.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+public interface Aggregator<Value, A> {
+
+    /**
+     * Returns the summary of no values.
+     */
+    A identity();
+
+    /**
+     * Returns the summary of a single value.
+     */
+    A lift(Value val);
+
+    /**
+     * Returns the summary of the values summarized by {@code a} followed by
+     * those summarized by {@code b}.
+     */
+    A combine(A a, A b);
+
+    /**
+     * Checks whether two summaries are the same.  Used only to verify the
+     * stored summaries when assertions are enabled.
+     */
+    default boolean same(A a, A b) {
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * Returns an aggregator built from the given identity and functions,
+     * whose summaries are compared with {@code equals()}.
+     */
+    static <Value, A> Aggregator<Value, A> of(A identity, Function<? super Value, ? extends A> lift, BinaryOperator<A> combine) {
+        if (lift == null) throw new IllegalArgumentException("second argument to of() is null");
+        if (combine == null) throw new IllegalArgumentException("third argument to of() is null");
+        return new Aggregator<Value, A>() {
+            public A identity() {
+                return identity;
+            }
+
+            public A lift(Value val) {
+                return lift.apply(val);
+            }
+
+            public A combine(A a, A b) {
+                return combine.apply(a, b);
+            }
+        };
+    }
+
+    /**
+     * Returns an aggregator built from the given identity and functions,
+     * whose summaries are compared with {@code same} rather than
+     * {@code equals()}.
+     */
+    static <Value, A> Aggregator<Value, A> of(A identity, Function<? super Value, ? extends A> lift, BinaryOperator<A> combine,
+            BiPredicate<? super A, ? super A> same) {
+        if (same == null) throw new IllegalArgumentException("fourth argument to of() is null");
+        Aggregator<Value, A> aggregator = of(identity, lift, combine);
+        return new Aggregator<Value, A>() {
+            public A identity() {
+                return aggregator.identity();
+            }
+
+            public A lift(Value val) {
+                return aggregator.lift(val);
+            }
+
+            public A combine(A a, A b) {
+                return aggregator.combine(a, b);
+            }
+
+            public boolean same(A a, A b) {
+                return same.test(a, b);
+            }
+        };
+    }
+
+    /**
+     * Returns an aggregator summing a long computed from every value.
+     */
+    static <Value> Aggregator<Value, Long> sum(ToLongFunction<? super Value> f) {
+        if (f == null) throw new IllegalArgumentException("argument to sum() is null");
+        return of(0L, val -> f.applyAsLong(val), Long::sum);
+    }
+
+    /**
+     * Returns an aggregator counting the values.
+     */
+    static <Value> Aggregator<Value, Long> count() {
+        return of(0L, val -> 1L, Long::sum);
+    }
+
+    /**
+     * Returns an aggregator finding the smallest value, which is
+     * {@code null} for no values.
+     */
+    static <Value extends Comparable<? super Value>> Aggregator<Value, Value> min() {
+        return of(null, val -> val, (a, b) -> a == null ? b : b == null ? a : a.compareTo(b) <= 0 ? a : b);
+    }
+
+    /**
+     * Returns an aggregator finding the largest value, which is
+     * {@code null} for no values.
+     */
+    static <Value extends Comparable<? super Value>> Aggregator<Value, Value> max() {
+        return of(null, val -> val, (a, b) -> a == null ? b : b == null ? a : a.compareTo(b) >= 0 ? a : b);
+    }
+}
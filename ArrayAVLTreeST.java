@@ -0,0 +1,636 @@
+/******************************************************************************
+ *  The class represents a symbol table implemented using an AVL tree, like
+ *  AVLTreeST, but without a node object per key.  The fields of the nodes are
+ *  instead kept in parallel arrays, and a node is an index into them.  This
+ *  saves the object header and the references of every node, and leaves the
+ *  garbage collector with a handful of arrays to trace instead of one object
+ *  per key.
+ *
+ *  Some terms to keep in mind, in addition to those in AVLTreeST:
+ *
+ *  - slot: A node is identified by its slot, an index into the arrays.  Slot
+ *  0 is reserved for the empty tree, playing the role of null; it has height
+ *  -1 and size 0, so no operation has to test for it before reading those.
+ *
+ *  - free list: Slots of deleted nodes are chained together through the left
+ *  array and handed out again before the arrays are grown.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import stdlib.*;
+
+
+public class ArrayAVLTreeST<Key extends Comparable<Key>, Value> {
+
+    /**
+     * The slot standing for the empty tree.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * An upper bound on the number of nodes on any root-to-leaf path, as in
+     * AVLTreeST.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The fields of the nodes, indexed by slot.
+     */
+    private Key[] keys;     // the keys
+    private Value[] vals;   // the associated values
+    private int[] height;   // heights of the subtrees
+    private int[] size;     // numbers of nodes in the subtrees
+    private int[] left;     // left subtrees, or the next free slot
+    private int[] right;    // right subtrees
+
+    /**
+     * The root slot.
+     */
+    private int root;
+
+    /**
+     * The first slot that has never been used.
+     */
+    private int next;
+
+    /**
+     * The first slot of the free list, or NIL if it is empty.
+     */
+    private int free;
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public ArrayAVLTreeST() {
+        this(16);
+    }
+
+    /**
+     * Initializes an empty symbol table with room for {@code capacity} keys
+     * before the arrays have to grow.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayAVLTreeST(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity is negative");
+        int slots = capacity + 1;
+        keys = (Key[]) new Comparable[slots];
+        vals = (Value[]) new Object[slots];
+        height = new int[slots];
+        size = new int[slots];
+        left = new int[slots];
+        right = new int[slots];
+        height[NIL] = -1;
+        root = NIL;
+        next = 1;
+        free = NIL;
+    }
+
+    /**
+     * Returns a slot holding a new leaf with the given key and value, reusing
+     * a freed slot if there is one.
+     */
+    private int allocate(Key key, Value val) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        }
+        else {
+            if (next == keys.length) resize(2 * keys.length);
+            node = next++;
+        }
+        keys[node] = key;
+        vals[node] = val;
+        height[node] = 0;
+        size[node] = 1;
+        left[node] = NIL;
+        right[node] = NIL;
+        return node;
+    }
+
+    /**
+     * Puts a slot back on the free list, dropping its key and value so they
+     * can be garbage collected.
+     */
+    private void release(int node) {
+        keys[node] = null;
+        vals[node] = null;
+        left[node] = free;
+        free = node;
+    }
+
+    /**
+     * Moves the nodes to arrays with the given number of slots.
+     */
+    private void resize(int slots) {
+        keys = Arrays.copyOf(keys, slots);
+        vals = Arrays.copyOf(vals, slots);
+        height = Arrays.copyOf(height, slots);
+        size = Arrays.copyOf(size, slots);
+        left = Arrays.copyOf(left, slots);
+        right = Arrays.copyOf(right, slots);
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    /**
+     * Returns the number key-value pairs in the symbol table.
+     */
+    public int size() {
+        return size[root];
+    }
+
+    /**
+     * Returns the height of the internal AVL tree. It is assumed that the
+     * height of an empty tree is -1 and the height of a tree with just one node
+     * is 0.
+     */
+    public int height() {
+        return height[root];
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        return vals[find(key)];
+    }
+
+    /**
+     * Returns the slot holding the given key, or NIL if there is none.
+     */
+    private int find(Key key) {
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(keys[node]);
+            if (cmp < 0) node = left[node];
+            else if (cmp > 0) node = right[node];
+            else return node;
+        }
+        return NIL;
+    }
+
+    /**
+     * Checks whether the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the symbol table, overwriting
+     * the old value with the new value if the symbol table already contains the
+     * specified key. Deletes the specified key (and its associated value) from
+     * this symbol table if the specified value is {@code null}.
+     */
+    public void put(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        if (root == NIL) {
+            root = allocate(key, val);
+            return;
+        }
+        int[] path = new int[MAX_DEPTH];
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int cmp = key.compareTo(keys[node]);
+            if (cmp == 0) {
+                vals[node] = val;
+                return;
+            }
+            path[depth++] = node;
+            int child = cmp < 0 ? left[node] : right[node];
+            if (child == NIL) {
+                int leaf = allocate(key, val);
+                if (cmp < 0) left[node] = leaf;
+                else right[node] = leaf;
+                break;
+            }
+            node = child;
+        }
+        retrace(path, depth, 1);
+        assert check();
+    }
+
+    /**
+     * Walks back up the search path after a node was added below it
+     * ({@code delta} is 1) or removed from below it ({@code delta} is -1),
+     * adjusting sizes all the way and heights until they stop changing.
+     */
+    private void retrace(int[] path, int depth, int delta) {
+        boolean rebalancing = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            size[node] += delta;
+            if (!rebalancing) continue;
+            int oldHeight = height[node];
+            height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+            int subtree = balance(node);
+            if (subtree != node) {
+                replaceChild(i == 0 ? NIL : path[i - 1], node, subtree);
+            }
+            if (height[subtree] == oldHeight) rebalancing = false;
+        }
+    }
+
+    /**
+     * Makes {@code replacement} take the place of {@code child} under
+     * {@code parent}, or at the root if {@code parent} is NIL.
+     */
+    private void replaceChild(int parent, int child, int replacement) {
+        if (parent == NIL) root = replacement;
+        else if (left[parent] == child) left[parent] = replacement;
+        else right[parent] = replacement;
+    }
+
+    /**
+     * Restores the AVL tree property of the subtree.
+     */
+    private int balance(int node) {
+        if (balanceFactor(node) < -1) {
+            if (balanceFactor(right[node]) > 0) {
+                right[node] = rotateRight(right[node]);
+            }
+            node = rotateLeft(node);
+        }
+        else if (balanceFactor(node) > 1) {
+            if (balanceFactor(left[node]) < 0) {
+                left[node] = rotateLeft(left[node]);
+            }
+            node = rotateRight(node);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the balance factor of the subtree.
+     */
+    private int balanceFactor(int node) {
+        return height[left[node]] - height[right[node]];
+    }
+
+    /**
+     * Rotates the given subtree to the right.
+     */
+    private int rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        right[child] = node;
+        size[child] = size[node];
+        size[node] = 1 + size[left[node]] + size[right[node]];
+        height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+        height[child] = 1 + Math.max(height[left[child]], height[right[child]]);
+        return child;
+    }
+
+    /**
+     * Rotates the given subtree to the left.
+     */
+    private int rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        left[child] = node;
+        size[child] = size[node];
+        size[node] = 1 + size[left[node]] + size[right[node]];
+        height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+        height[child] = 1 + Math.max(height[left[child]], height[right[child]]);
+        return child;
+    }
+
+    /**
+     * Removes the specified key and its associated value from the symbol table
+     * (if the key is in the symbol table).
+     */
+    public void delete(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to delete() is null");
+        int[] path = new int[MAX_DEPTH];
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(keys[node]);
+            if (cmp == 0) break;
+            path[depth++] = node;
+            node = cmp < 0 ? left[node] : right[node];
+        }
+        if (node == NIL) return;
+        depth = unlink(path, depth, node);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Detaches {@code node} from the tree, given the search path leading to
+     * it.  A node with two children is replaced by the smallest node of its
+     * right subtree; the path is extended down to where that node was taken
+     * from, and its new length is returned for retracing.
+     */
+    private int unlink(int[] path, int depth, int node) {
+        int parent = depth == 0 ? NIL : path[depth - 1];
+        if (left[node] == NIL) {
+            replaceChild(parent, node, right[node]);
+            return depth;
+        }
+        if (right[node] == NIL) {
+            replaceChild(parent, node, left[node]);
+            return depth;
+        }
+        int slot = depth++;
+        int successor = right[node];
+        while (left[successor] != NIL) {
+            path[depth++] = successor;
+            successor = left[successor];
+        }
+        if (successor == right[node]) right[node] = right[successor];
+        else left[path[depth - 1]] = right[successor];
+        left[successor] = left[node];
+        right[successor] = right[node];
+        height[successor] = height[node];
+        size[successor] = size[node];
+        path[slot] = successor;
+        replaceChild(parent, node, successor);
+        return depth;
+    }
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMin() with empty symbol table");
+        int[] path = new int[MAX_DEPTH];
+        int depth = 0;
+        int node = root;
+        while (left[node] != NIL) {
+            path[depth++] = node;
+            node = left[node];
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, right[node]);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Removes the largest key and associated value from the symbol table.
+     */
+    public void deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMax() with empty symbol table");
+        int[] path = new int[MAX_DEPTH];
+        int depth = 0;
+        int node = root;
+        while (right[node] != NIL) {
+            path[depth++] = node;
+            node = right[node];
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, left[node]);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        int node = root;
+        while (left[node] != NIL) node = left[node];
+        return keys[node];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int node = root;
+        while (right[node] != NIL) node = right[node];
+        return keys[node];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to rank() is null");
+        int rank = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(keys[node]);
+            if (cmp < 0) node = left[node];
+            else if (cmp > 0) {
+                rank += 1 + size[left[node]];
+                node = right[node];
+            }
+            else return rank + size[left[node]];
+        }
+        return rank;
+    }
+
+    /**
+     * Returns all keys in the symbol table.
+     */
+    public Iterable<Key> keys() {
+        return keysInOrder();
+    }
+
+    /**
+     * Returns all keys in the symbol table following an in-order traversal.
+     * The keys are produced lazily; the symbol table should not be modified
+     * while an iteration is in progress.
+     */
+    public Iterable<Key> keysInOrder() {
+        return () -> new KeyIterator(null, true, null);
+    }
+
+    /**
+     * Returns all keys in the symbol table following a level-order traversal.
+     */
+    public Iterable<Key> keysLevelOrder() {
+        return () -> new LevelOrderIterator();
+    }
+
+    /**
+     * Returns all keys in the symbol table in the given range.
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        return () -> new KeyIterator(lo, true, hi);
+    }
+
+    /**
+     * Returns the keys in the symbol table strictly greater than {@code from}
+     * and no greater than {@code hi}.
+     */
+    public Iterable<Key> keysAfter(Key from, Key hi) {
+        if (from == null) throw new IllegalArgumentException("first argument to keysAfter() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keysAfter() is null");
+        return () -> new KeyIterator(from, false, hi);
+    }
+
+    /**
+     * Iterates over keys in order between optional bounds, keeping a stack of
+     * at most one slot per level.
+     */
+    private class KeyIterator implements Iterator<Key> {
+        private final int[] stack = new int[MAX_DEPTH];
+        private int depth;
+        private final Key hi;
+
+        public KeyIterator(Key lo, boolean inclusive, Key hi) {
+            this.hi = hi;
+            int node = root;
+            while (node != NIL) {
+                int cmp = lo == null ? -1 : lo.compareTo(keys[node]);
+                if (cmp < 0) {
+                    stack[depth++] = node;
+                    node = left[node];
+                }
+                else if (cmp > 0 || !inclusive) {
+                    node = right[node];
+                }
+                else {
+                    stack[depth++] = node;
+                    break;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            if (depth == 0) return false;
+            return hi == null || keys[stack[depth - 1]].compareTo(hi) <= 0;
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int node = stack[--depth];
+            for (int x = right[node]; x != NIL; x = left[x]) {
+                stack[depth++] = x;
+            }
+            return keys[node];
+        }
+    }
+
+    /**
+     * Iterates over keys level by level using a ring buffer of slots.  No
+     * more than half the nodes of a binary tree, plus one, can be waiting at
+     * any time.
+     */
+    private class LevelOrderIterator implements Iterator<Key> {
+        private final int[] queue = new int[size() / 2 + 2];
+        private int head;
+        private int count;
+
+        public LevelOrderIterator() {
+            if (root != NIL) enqueue(root);
+        }
+
+        private void enqueue(int node) {
+            queue[(head + count++) % queue.length] = node;
+        }
+
+        public boolean hasNext() {
+            return count > 0;
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int node = queue[head];
+            head = (head + 1) % queue.length;
+            count--;
+            if (left[node] != NIL) enqueue(left[node]);
+            if (right[node] != NIL) enqueue(right[node]);
+            return keys[node];
+        }
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Checks if the AVL tree invariants are fine.
+     */
+    private boolean check() {
+        if (!isBST()) StdOut.println("Symmetric order not consistent");
+        if (!isAVL()) StdOut.println("AVL property not consistent");
+        if (!isSizeConsistent()) StdOut.println("Subtree counts not consistent");
+        return isBST() && isAVL() && isSizeConsistent();
+    }
+
+    /**
+     * Checks if AVL property is consistent.
+     */
+    private boolean isAVL() {
+        return isAVL(root);
+    }
+
+    /**
+     * Checks if AVL property is consistent in the subtree.
+     */
+    private boolean isAVL(int node) {
+        if (node == NIL) return true;
+        int bf = balanceFactor(node);
+        if (bf > 1 || bf < -1) return false;
+        return isAVL(left[node]) && isAVL(right[node]);
+    }
+
+    /**
+     * Checks if the symmetric order is consistent.
+     */
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+
+    /**
+     * Checks if the tree rooted at node is a BST with all keys strictly between
+     * min and max (if min or max is null, treat as empty constraint).
+     */
+    private boolean isBST(int node, Key min, Key max) {
+        if (node == NIL) return true;
+        if (min != null && keys[node].compareTo(min) <= 0) return false;
+        if (max != null && keys[node].compareTo(max) >= 0) return false;
+        return isBST(left[node], min, keys[node]) && isBST(right[node], keys[node], max);
+    }
+
+    /**
+     * Checks if size is consistent.
+     */
+    private boolean isSizeConsistent() {
+        return isSizeConsistent(root);
+    }
+
+    /**
+     * Checks if the size of the subtree is consistent.
+     */
+    private boolean isSizeConsistent(int node) {
+        if (node == NIL) return true;
+        if (size[node] != size[left[node]] + size[right[node]] + 1) return false;
+        return isSizeConsistent(left[node]) && isSizeConsistent(right[node]);
+    }
+}
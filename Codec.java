@@ -0,0 +1,72 @@
+/******************************************************************************
+ *  The interface converts keys or values to and from bytes for the snapshot
+ *  files written by AVLTreeST.writeSnapshot() and read by MappedST.
+ *
+ *  Decoding reads straight out of the mapped file, so it is given a buffer
+ *  and the position and length of the bytes rather than a copy of them.  It
+ *  must use absolute reads only, leaving the position of the buffer alone,
+ *  since one buffer is shared by every reader of the file.
+ *
+ *  Codecs for strings, longs and ints are provided.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public interface Codec<T> {
+
+    /**
+     * Returns the bytes representing the given key or value.
+     */
+    byte[] encode(T t);
+
+    /**
+     * Returns the key or value represented by the {@code length} bytes of
+     * the buffer starting at {@code offset}.  The buffer is big-endian.
+     */
+    T decode(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Stores strings in UTF-8.
+     */
+    Codec<String> STRING = new Codec<String>() {
+        public byte[] encode(String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(ByteBuffer buffer, int offset, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Stores longs in 8 big-endian bytes.
+     */
+    Codec<Long> LONG = new Codec<Long>() {
+        public byte[] encode(Long x) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(x).array();
+        }
+
+        public Long decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getLong(offset);
+        }
+    };
+
+    /**
+     * Stores ints in 4 big-endian bytes.
+     */
+    Codec<Integer> INTEGER = new Codec<Integer>() {
+        public byte[] encode(Integer x) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(x).array();
+        }
+
+        public Integer decode(ByteBuffer buffer, int offset, int length) {
+            return buffer.getInt(offset);
+        }
+    };
+}
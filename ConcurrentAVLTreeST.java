@@ -0,0 +1,743 @@
+/******************************************************************************
+ *  A symbol table implemented using a concurrent, relaxed-balance AVL tree,
+ *  following "A Practical Concurrent Binary Search Tree" by Bronson, Casper,
+ *  Chafi and Olukotun (PPoPP 2010).  It is meant to be shared by many threads
+ *  at once, where a synchronized AVLTreeST would serialize all of them.
+ *
+ *  Some terms to keep in mind, in addition to those in AVLTreeST:
+ *
+ *  - version: Every node carries a version number.  A rotation that moves a
+ *  node down, and so shrinks the range of keys found below it, marks the
+ *  node as shrinking while it runs and bumps its version when done.  A node
+ *  removed from the tree gets the special version UNLINKED.
+ *
+ *  - optimistic hand-over-hand validation: A search reads the version of a
+ *  node, reads the child link it wants to follow, and then checks that the
+ *  version has not changed.  If it has, the key may have moved out of the
+ *  subtree, so the search backs up and retries from the parent.  Searches
+ *  therefore never lock anything.
+ *
+ *  - routing node: Deleting a key whose node has two children only clears
+ *  the value; the node keeps routing searches until it has at most one
+ *  child, when it is unlinked.
+ *
+ *  - relaxed balance: Heights are repaired after an update returns its
+ *  result, locking only the node being fixed, its parent and the children
+ *  taking part in a rotation.  While other threads are updating, the tree
+ *  may briefly be out of balance.  Every update walks its repairs all the
+ *  way up to the root, so the tree is an AVL tree again whenever no update
+ *  is in progress, which check() verifies.
+ *
+ *  The height of a leaf is 1 internally and the height of an empty subtree
+ *  is 0; height() reports it with the AVLTreeST convention.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import stdlib.StdOut;
+
+
+public class ConcurrentAVLTreeST<Key extends Comparable<Key>, Value> {
+
+    /**
+     * Version bits.  A node's version is UNLINKED once it is removed from the
+     * tree; otherwise the SHRINKING bit is set while a rotation is moving the
+     * node down and the remaining bits count completed rotations.
+     */
+    private static final long UNLINKED = 1L;
+    private static final long SHRINKING = 2L;
+    private static final long SHRINK_COUNT_INCR = 4L;
+
+    /**
+     * Results of nodeCondition() other than a new height.
+     */
+    private static final int UNLINK_REQUIRED = -1;
+    private static final int REBALANCE_REQUIRED = -2;
+    private static final int NOTHING_REQUIRED = -3;
+
+    /**
+     * How many times to spin on a shrinking node before blocking on its lock.
+     */
+    private static final int SPIN_COUNT = 100;
+
+    /**
+     * Returned by the attempt methods when the search must back up a level.
+     */
+    private static final Object RETRY = new Object();
+
+    /**
+     * A sentinel whose right child is the root.  It is never rotated, so its
+     * version never changes.
+     */
+    private final Node holder = new Node(null, null, null, 0);
+
+    /**
+     * The number of keys with a value.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * This class represents a node of the tree.  A {@code null} value marks a
+     * routing node whose key has been deleted.
+     */
+    private class Node {
+        private final Key key;          // the key
+        private volatile Value val;     // the associated value, or null
+        private volatile int height;    // height of the subtree
+        private volatile long version;  // see UNLINKED and SHRINKING
+        private volatile Node parent;   // parent node
+        private volatile Node left;     // left subtree
+        private volatile Node right;    // right subtree
+
+        public Node(Key key, Value val, Node parent, int height) {
+            this.key = key;
+            this.val = val;
+            this.parent = parent;
+            this.height = height;
+        }
+
+        private Node child(int dir) {
+            return dir < 0 ? left : right;
+        }
+
+        private void setChild(int dir, Node node) {
+            if (dir < 0) left = node;
+            else right = node;
+        }
+    }
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public ConcurrentAVLTreeST() {
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number key-value pairs in the symbol table.  It is exact
+     * when no update is in progress.
+     */
+    public int size() {
+        return (int) count.sum();
+    }
+
+    /**
+     * Returns the height of the internal tree, with the same convention as
+     * {@code AVLTreeST.height()}.
+     */
+    public int height() {
+        return height(holder.right) - 1;
+    }
+
+    /**
+     * Returns the height of the subtree.
+     */
+    private int height(Node node) {
+        if (node == null) return 0;
+        return node.height;
+    }
+
+    /**
+     * Returns the value associated with the given key.  It never blocks on a
+     * lock except to wait out a rotation of a node on its path.
+     */
+    @SuppressWarnings("unchecked")
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        while (true) {
+            Object result = attemptGet(key, holder, 1, 0);
+            if (result != RETRY) return (Value) result;
+        }
+    }
+
+    /**
+     * Searches for the key below {@code node}, which had version
+     * {@code nodeVersion} when it was reached, in direction {@code dir}.
+     */
+    private Object attemptGet(Key key, Node node, int dir, long nodeVersion) {
+        while (true) {
+            Node child = node.child(dir);
+            if (node.version != nodeVersion) return RETRY;
+            if (child == null) return null;
+            int nextDir = key.compareTo(child.key);
+            if (nextDir == 0) return child.val;
+            long childVersion = child.version;
+            if ((childVersion & SHRINKING) != 0) {
+                waitUntilNotChanging(child);
+            }
+            else if (childVersion != UNLINKED && child == node.child(dir)) {
+                if (node.version != nodeVersion) return RETRY;
+                Object result = attemptGet(key, child, nextDir, childVersion);
+                if (result != RETRY) return result;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the symbol table, overwriting
+     * the old value with the new value if the symbol table already contains the
+     * specified key. Deletes the specified key (and its associated value) from
+     * this symbol table if the specified value is {@code null}.
+     */
+    public void put(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        update(key, val);
+    }
+
+    /**
+     * Removes the specified key and its associated value from the symbol table
+     * (if the key is in the symbol table).
+     */
+    public void delete(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to delete() is null");
+        update(key, null);
+    }
+
+    /**
+     * Sets the value of the key, removing it if {@code val} is {@code null},
+     * and keeps the count of keys up to date.
+     */
+    private void update(Key key, Value val) {
+        while (true) {
+            Node right = holder.right;
+            if (right == null) {
+                if (val == null) return;
+                synchronized (holder) {
+                    if (holder.right == null) {
+                        holder.right = new Node(key, val, holder, 1);
+                        count.increment();
+                        return;
+                    }
+                }
+            }
+            else {
+                long rightVersion = right.version;
+                if ((rightVersion & (SHRINKING | UNLINKED)) != 0) {
+                    waitUntilNotChanging(right);
+                }
+                else if (right == holder.right) {
+                    Object result = attemptUpdate(key, val, holder, right, rightVersion);
+                    if (result != RETRY) {
+                        if (result == null && val != null) count.increment();
+                        else if (result != null && val == null) count.decrement();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the value of the key in the subtree rooted at {@code node}, which
+     * had version {@code nodeVersion} when it was reached from
+     * {@code parent}.  Returns the previous value, or RETRY if the search
+     * must back up a level.
+     */
+    private Object attemptUpdate(Key key, Value val, Node parent, Node node, long nodeVersion) {
+        int dir = key.compareTo(node.key);
+        if (dir == 0) return attemptNodeUpdate(val, parent, node);
+        while (true) {
+            Node child = node.child(dir);
+            if (node.version != nodeVersion) return RETRY;
+            if (child == null) {
+                if (val == null) return null;
+                synchronized (node) {
+                    if (node.version != nodeVersion) return RETRY;
+                    if (node.child(dir) != null) continue;
+                    node.setChild(dir, new Node(key, val, node, 1));
+                }
+                fixHeightAndRebalance(node);
+                return null;
+            }
+            long childVersion = child.version;
+            if ((childVersion & (SHRINKING | UNLINKED)) != 0) {
+                waitUntilNotChanging(child);
+            }
+            else if (child == node.child(dir)) {
+                if (node.version != nodeVersion) return RETRY;
+                Object result = attemptUpdate(key, val, node, child, childVersion);
+                if (result != RETRY) return result;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of the key held in {@code node}.  Removing the key from a
+     * node with fewer than two children unlinks the node under the locks of
+     * the node and its parent; otherwise only the node is locked.
+     */
+    private Object attemptNodeUpdate(Value val, Node parent, Node node) {
+        if (val == null && node.val == null) return null;
+        if (val == null && (node.left == null || node.right == null)) {
+            Value prev;
+            synchronized (parent) {
+                if (parent.version == UNLINKED || node.parent != parent) return RETRY;
+                synchronized (node) {
+                    prev = node.val;
+                    if (prev == null) return null;
+                    if (!attemptUnlink(parent, node)) return RETRY;
+                }
+            }
+            fixHeightAndRebalance(parent);
+            return prev;
+        }
+        synchronized (node) {
+            if (node.version == UNLINKED) return RETRY;
+            Value prev = node.val;
+            if (val == null && (node.left == null || node.right == null)) return RETRY;
+            node.val = val;
+            return prev;
+        }
+    }
+
+    /**
+     * Removes {@code node}, which has at most one child, from below
+     * {@code parent}.  Both must be locked.  Returns false if the tree has
+     * changed so that this is no longer possible.
+     */
+    private boolean attemptUnlink(Node parent, Node node) {
+        Node parentLeft = parent.left;
+        Node parentRight = parent.right;
+        if (parentLeft != node && parentRight != node) return false;
+        Node left = node.left;
+        Node right = node.right;
+        if (left != null && right != null) return false;
+        Node splice = left != null ? left : right;
+        if (parentLeft == node) parent.left = splice;
+        else parent.right = splice;
+        if (splice != null) splice.parent = parent;
+        node.version = UNLINKED;
+        node.val = null;
+        return true;
+    }
+
+    /**
+     * Waits until a rotation involving the node has finished, spinning
+     * briefly and then blocking on the node's lock, which the rotation holds.
+     */
+    private void waitUntilNotChanging(Node node) {
+        long version = node.version;
+        if ((version & SHRINKING) == 0) return;
+        for (int i = 0; i < SPIN_COUNT; i++) {
+            if (node.version != version) return;
+            Thread.onSpinWait();
+        }
+        synchronized (node) {
+            // the rotation is over once the lock is free
+        }
+    }
+
+    /**
+     * Returns the repair the node needs: UNLINK_REQUIRED for a routing node
+     * with at most one child, REBALANCE_REQUIRED if its children's heights
+     * differ by more than one, a new height if only that is out of date, or
+     * NOTHING_REQUIRED.
+     */
+    private int nodeCondition(Node node) {
+        Node left = node.left;
+        Node right = node.right;
+        if ((left == null || right == null) && node.val == null) return UNLINK_REQUIRED;
+        int height = node.height;
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        int newHeight = 1 + Math.max(leftHeight, rightHeight);
+        int bf = leftHeight - rightHeight;
+        if (bf < -1 || bf > 1) return REBALANCE_REQUIRED;
+        return height != newHeight ? newHeight : NOTHING_REQUIRED;
+    }
+
+    /**
+     * Repairs heights and balance from {@code node} all the way up to the
+     * root.  It does not stop at a node needing nothing, since the node
+     * handed back by a rotation may be sound while an ancestor is still out
+     * of balance, as when a child is rotated before its routing node parent
+     * can be.  Checking a sound node takes no lock.
+     */
+    private void fixHeightAndRebalance(Node node) {
+        while (node != null && node.parent != null) {
+            int condition = nodeCondition(node);
+            Node next = null;
+            if (condition == NOTHING_REQUIRED || node.version == UNLINKED) {
+                // move on to the parent
+            }
+            else if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+                synchronized (node) {
+                    next = fixHeight(node);
+                }
+            }
+            else {
+                Node parent = node.parent;
+                next = node;
+                synchronized (parent) {
+                    if (parent.version != UNLINKED && node.parent == parent) {
+                        synchronized (node) {
+                            next = rebalance(parent, node);
+                        }
+                    }
+                }
+            }
+            node = next != null ? next : node.parent;
+        }
+    }
+
+    /**
+     * Updates the height of a locked node.  Returns the next node to repair,
+     * or {@code null} to go on from the node's parent.
+     */
+    private Node fixHeight(Node node) {
+        int condition = nodeCondition(node);
+        switch (condition) {
+            case REBALANCE_REQUIRED:
+            case UNLINK_REQUIRED:
+                return node;
+            case NOTHING_REQUIRED:
+                return null;
+            default:
+                node.height = condition;
+                return node.parent;
+        }
+    }
+
+    /**
+     * Unlinks or rebalances the locked node {@code node} below its locked
+     * parent.  Returns the next node to repair, or {@code null} to go on
+     * from the node's parent.
+     */
+    private Node rebalance(Node parent, Node node) {
+        Node left = node.left;
+        Node right = node.right;
+        if ((left == null || right == null) && node.val == null) {
+            if (attemptUnlink(parent, node)) return fixHeight(parent);
+            return node;
+        }
+        int height = node.height;
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        int newHeight = 1 + Math.max(leftHeight, rightHeight);
+        int bf = leftHeight - rightHeight;
+        if (bf > 1) return rebalanceToRight(parent, node, left, rightHeight);
+        if (bf < -1) return rebalanceToLeft(parent, node, right, leftHeight);
+        if (newHeight != height) {
+            node.height = newHeight;
+            return fixHeight(parent);
+        }
+        return null;
+    }
+
+    /**
+     * Rotates the left-heavy node {@code node} to the right, first rotating
+     * its left child to the left if that child is right-heavy.
+     */
+    private Node rebalanceToRight(Node parent, Node node, Node left, int rightHeight) {
+        synchronized (left) {
+            int leftHeight = left.height;
+            if (leftHeight - rightHeight <= 1) return node;
+            Node leftRight = left.right;
+            int leftLeftHeight = height(left.left);
+            int leftRightHeight = height(leftRight);
+            if (leftLeftHeight >= leftRightHeight) {
+                return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+            }
+            synchronized (leftRight) {
+                leftRightHeight = leftRight.height;
+                if (leftLeftHeight >= leftRightHeight) {
+                    return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+                }
+                int leftRightLeftHeight = height(leftRight.left);
+                int bf = leftLeftHeight - leftRightLeftHeight;
+                if (bf >= -1 && bf <= 1 && !((leftLeftHeight == 0 || leftRightLeftHeight == 0) && left.val == null)) {
+                    return rotateRightOverLeft(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightLeftHeight);
+                }
+                // rotate the left child even if it is only one out, or node stays out of balance
+                return rotateLeft(node, left, leftLeftHeight, leftRight, leftRight.left, leftRightLeftHeight, height(leftRight.right));
+            }
+        }
+    }
+
+    /**
+     * Rotates the right-heavy node {@code node} to the left, first rotating
+     * its right child to the right if that child is left-heavy.
+     */
+    private Node rebalanceToLeft(Node parent, Node node, Node right, int leftHeight) {
+        synchronized (right) {
+            int rightHeight = right.height;
+            if (leftHeight - rightHeight >= -1) return node;
+            Node rightLeft = right.left;
+            int rightLeftHeight = height(rightLeft);
+            int rightRightHeight = height(right.right);
+            if (rightRightHeight >= rightLeftHeight) {
+                return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+            }
+            synchronized (rightLeft) {
+                rightLeftHeight = rightLeft.height;
+                if (rightRightHeight >= rightLeftHeight) {
+                    return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+                }
+                int rightLeftRightHeight = height(rightLeft.right);
+                int bf = rightRightHeight - rightLeftRightHeight;
+                if (bf >= -1 && bf <= 1 && !((rightRightHeight == 0 || rightLeftRightHeight == 0) && right.val == null)) {
+                    return rotateLeftOverRight(parent, node, leftHeight, right, rightLeft, rightRightHeight, rightLeftRightHeight);
+                }
+                // rotate the right child even if it is only one out, or node stays out of balance
+                return rotateRight(node, right, rightLeft, rightRightHeight, height(rightLeft.left), rightLeft.right, rightLeftRightHeight);
+            }
+        }
+    }
+
+    /**
+     * Rotates {@code node} to the right below {@code parent}, with all three
+     * of them locked.  Returns the next node to repair.
+     */
+    private Node rotateRight(Node parent, Node node, Node left, int rightHeight,
+                             int leftLeftHeight, Node leftRight, int leftRightHeight) {
+        long nodeVersion = node.version;
+        Node parentLeft = parent.left;
+        node.version = nodeVersion | SHRINKING;
+
+        node.left = leftRight;
+        if (leftRight != null) leftRight.parent = node;
+        left.right = node;
+        node.parent = left;
+        if (parentLeft == node) parent.left = left;
+        else parent.right = left;
+        left.parent = parent;
+
+        int nodeHeight = 1 + Math.max(leftRightHeight, rightHeight);
+        node.height = nodeHeight;
+        left.height = 1 + Math.max(leftLeftHeight, nodeHeight);
+
+        node.version = nodeVersion + SHRINK_COUNT_INCR;
+
+        int bf = leftRightHeight - rightHeight;
+        if (bf < -1 || bf > 1) return node;
+        if ((leftRight == null || rightHeight == 0) && node.val == null) return node;
+        int leftBf = leftLeftHeight - nodeHeight;
+        if (leftBf < -1 || leftBf > 1) return left;
+        if (leftLeftHeight == 0 && left.val == null) return left;
+        return fixHeight(parent);
+    }
+
+    /**
+     * Rotates {@code node} to the left below {@code parent}, with all three
+     * of them locked.  Returns the next node to repair.
+     */
+    private Node rotateLeft(Node parent, Node node, int leftHeight, Node right,
+                            Node rightLeft, int rightLeftHeight, int rightRightHeight) {
+        long nodeVersion = node.version;
+        Node parentLeft = parent.left;
+        node.version = nodeVersion | SHRINKING;
+
+        node.right = rightLeft;
+        if (rightLeft != null) rightLeft.parent = node;
+        right.left = node;
+        node.parent = right;
+        if (parentLeft == node) parent.left = right;
+        else parent.right = right;
+        right.parent = parent;
+
+        int nodeHeight = 1 + Math.max(leftHeight, rightLeftHeight);
+        node.height = nodeHeight;
+        right.height = 1 + Math.max(nodeHeight, rightRightHeight);
+
+        node.version = nodeVersion + SHRINK_COUNT_INCR;
+
+        int bf = leftHeight - rightLeftHeight;
+        if (bf < -1 || bf > 1) return node;
+        if ((rightLeft == null || leftHeight == 0) && node.val == null) return node;
+        int rightBf = nodeHeight - rightRightHeight;
+        if (rightBf < -1 || rightBf > 1) return right;
+        if (rightRightHeight == 0 && right.val == null) return right;
+        return fixHeight(parent);
+    }
+
+    /**
+     * Performs a double rotation that lifts the left child's right child
+     * above {@code node}, with all four nodes locked.  Returns the next node
+     * to repair.
+     */
+    private Node rotateRightOverLeft(Node parent, Node node, Node left, int rightHeight,
+                                     int leftLeftHeight, Node leftRight, int leftRightLeftHeight) {
+        long nodeVersion = node.version;
+        long leftVersion = left.version;
+        Node parentLeft = parent.left;
+        Node leftRightLeft = leftRight.left;
+        Node leftRightRight = leftRight.right;
+        int leftRightRightHeight = height(leftRightRight);
+
+        node.version = nodeVersion | SHRINKING;
+        left.version = leftVersion | SHRINKING;
+
+        node.left = leftRightRight;
+        if (leftRightRight != null) leftRightRight.parent = node;
+        left.right = leftRightLeft;
+        if (leftRightLeft != null) leftRightLeft.parent = left;
+        leftRight.left = left;
+        left.parent = leftRight;
+        leftRight.right = node;
+        node.parent = leftRight;
+        if (parentLeft == node) parent.left = leftRight;
+        else parent.right = leftRight;
+        leftRight.parent = parent;
+
+        int nodeHeight = 1 + Math.max(leftRightRightHeight, rightHeight);
+        node.height = nodeHeight;
+        int leftNewHeight = 1 + Math.max(leftLeftHeight, leftRightLeftHeight);
+        left.height = leftNewHeight;
+        leftRight.height = 1 + Math.max(leftNewHeight, nodeHeight);
+
+        node.version = nodeVersion + SHRINK_COUNT_INCR;
+        left.version = leftVersion + SHRINK_COUNT_INCR;
+
+        int bf = leftRightRightHeight - rightHeight;
+        if (bf < -1 || bf > 1) return node;
+        if ((leftRightRight == null || rightHeight == 0) && node.val == null) return node;
+        int topBf = leftNewHeight - nodeHeight;
+        if (topBf < -1 || topBf > 1) return leftRight;
+        return fixHeight(parent);
+    }
+
+    /**
+     * Performs a double rotation that lifts the right child's left child
+     * above {@code node}, with all four nodes locked.  Returns the next node
+     * to repair.
+     */
+    private Node rotateLeftOverRight(Node parent, Node node, int leftHeight, Node right,
+                                     Node rightLeft, int rightRightHeight, int rightLeftRightHeight) {
+        long nodeVersion = node.version;
+        long rightVersion = right.version;
+        Node parentLeft = parent.left;
+        Node rightLeftLeft = rightLeft.left;
+        Node rightLeftRight = rightLeft.right;
+        int rightLeftLeftHeight = height(rightLeftLeft);
+
+        node.version = nodeVersion | SHRINKING;
+        right.version = rightVersion | SHRINKING;
+
+        node.right = rightLeftLeft;
+        if (rightLeftLeft != null) rightLeftLeft.parent = node;
+        right.left = rightLeftRight;
+        if (rightLeftRight != null) rightLeftRight.parent = right;
+        rightLeft.right = right;
+        right.parent = rightLeft;
+        rightLeft.left = node;
+        node.parent = rightLeft;
+        if (parentLeft == node) parent.left = rightLeft;
+        else parent.right = rightLeft;
+        rightLeft.parent = parent;
+
+        int nodeHeight = 1 + Math.max(leftHeight, rightLeftLeftHeight);
+        node.height = nodeHeight;
+        int rightNewHeight = 1 + Math.max(rightLeftRightHeight, rightRightHeight);
+        right.height = rightNewHeight;
+        rightLeft.height = 1 + Math.max(nodeHeight, rightNewHeight);
+
+        node.version = nodeVersion + SHRINK_COUNT_INCR;
+        right.version = rightVersion + SHRINK_COUNT_INCR;
+
+        int bf = leftHeight - rightLeftLeftHeight;
+        if (bf < -1 || bf > 1) return node;
+        if ((rightLeftLeft == null || leftHeight == 0) && node.val == null) return node;
+        int topBf = nodeHeight - rightNewHeight;
+        if (topBf < -1 || topBf > 1) return rightLeft;
+        return fixHeight(parent);
+    }
+
+    /**
+     * Checks the integrity of the tree.  It is only meaningful when no
+     * update is in progress, which is when the tree must be an AVL tree.
+     */
+    boolean check() {
+        if (!isBST()) StdOut.println("Symmetric order or parent links not consistent");
+        if (!isAVL()) StdOut.println("AVL property or heights not consistent");
+        if (!isRoutingConsistent()) StdOut.println("Routing nodes not consistent");
+        if (!isSizeConsistent()) StdOut.println("Count not consistent");
+        return isBST() && isAVL() && isRoutingConsistent() && isSizeConsistent();
+    }
+
+    /**
+     * Checks if the stored heights are right and the AVL property holds.
+     */
+    private boolean isAVL() {
+        return isAVL(holder.right);
+    }
+
+    /**
+     * Checks if the stored heights are right and the AVL property holds in
+     * the subtree.
+     */
+    private boolean isAVL(Node node) {
+        if (node == null) return true;
+        int bf = height(node.left) - height(node.right);
+        if (bf > 1 || bf < -1) return false;
+        if (node.height != 1 + Math.max(height(node.left), height(node.right))) return false;
+        return isAVL(node.left) && isAVL(node.right);
+    }
+
+    /**
+     * Checks if the symmetric order and the parent links are consistent.
+     */
+    private boolean isBST() {
+        return isBST(holder.right, holder, null, null);
+    }
+
+    /**
+     * Checks if the tree rooted at node is a BST with all keys strictly
+     * between min and max, whose nodes are linked to their parents and
+     * none of which is unlinked or shrinking.
+     */
+    private boolean isBST(Node node, Node parent, Key min, Key max) {
+        if (node == null) return true;
+        if (node.parent != parent || (node.version & (UNLINKED | SHRINKING)) != 0) return false;
+        if (min != null && node.key.compareTo(min) <= 0) return false;
+        if (max != null && node.key.compareTo(max) >= 0) return false;
+        return isBST(node.left, node, min, node.key) && isBST(node.right, node, node.key, max);
+    }
+
+    /**
+     * Checks if every routing node has two children, as it would have been
+     * unlinked otherwise.
+     */
+    private boolean isRoutingConsistent() {
+        return isRoutingConsistent(holder.right);
+    }
+
+    /**
+     * Checks if every routing node in the subtree has two children.
+     */
+    private boolean isRoutingConsistent(Node node) {
+        if (node == null) return true;
+        if (node.val == null && (node.left == null || node.right == null)) return false;
+        return isRoutingConsistent(node.left) && isRoutingConsistent(node.right);
+    }
+
+    /**
+     * Checks if the count matches the number of keys with a value.
+     */
+    private boolean isSizeConsistent() {
+        return size() == values(holder.right);
+    }
+
+    /**
+     * Returns the number of keys with a value in the subtree.
+     */
+    private int values(Node node) {
+        if (node == null) return 0;
+        return (node.val != null ? 1 : 0) + values(node.left) + values(node.right);
+    }
+}
@@ -0,0 +1,562 @@
+/******************************************************************************
+ *  The class represents a symbol table kept in memory in an AVLTreeST whose
+ *  changes survive a crash.  Every put and delete is appended to a
+ *  write-ahead log on disk before it is acknowledged, and on startup the
+ *  table is rebuilt from the last snapshot plus the log written since.
+ *
+ *  Some terms to keep in mind:
+ *
+ *  - log record: One change, a put or a delete of a single key.  deleteMin
+ *  and deleteMax are logged as deletes of the key they removed, so
+ *  replaying a record always has the same effect.  Each record carries its
+ *  length and a CRC32 checksum, so a record torn by a crash is recognized
+ *  and dropped, together with everything after it.
+ *
+ *  - group commit: Records are collected in memory and written and forced
+ *  to disk in batches.  With a sync interval of 0 every change waits until
+ *  its record is on disk, but writers that arrive while a force is under
+ *  way are all covered by the next one.  With a positive interval a
+ *  background thread forces the log that often and changes return at once,
+ *  so a crash can lose at most the last interval's changes.  If writing or
+ *  forcing the log ever fails, the records in that batch can no longer be
+ *  made durable, so the failure is kept and every later change, sync and
+ *  close throws it.
+ *
+ *  - generation: The directory holds files named snapshot-G and log-G.  The
+ *  snapshot of generation G holds the table as it was before any record of
+ *  log-G; the table is that snapshot plus log-G, log-(G + 1), ... replayed
+ *  in order.
+ *
+ *  - checkpoint: Starts a new log generation and writes a snapshot of the
+ *  table at that moment in the background.  Since the tree is persistent,
+ *  taking the snapshot costs constant time and writers carry on while it is
+ *  written.  Once it is safely on disk the older logs and snapshots are
+ *  deleted.
+ *
+ *  Creating or renaming a file is only durable once the directory holding
+ *  it has been forced too, so the directory is forced after a new log is
+ *  created and after a snapshot is renamed into place, and always before
+ *  the files they replace are deleted.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class DurableAVLTreeST<Key extends Comparable<Key>, Value> implements Closeable {
+
+    /**
+     * The kinds of log record.
+     */
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final Path directory;
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+    private final AVLTreeST<Key, Value> st = new AVLTreeST<Key, Value>(true);
+
+    /**
+     * Records not yet written to the log, and how many records have been
+     * appended to it in all.  Both are guarded by {@code this}, like the
+     * tree.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+
+    /**
+     * The current log and its generation, and how many records are known to
+     * be on disk.  Guarded by {@code flushLock}, which is always taken
+     * before {@code this} when both are needed.
+     */
+    private final Object flushLock = new Object();
+    private FileChannel log;
+    private long generation;
+    private long durable;
+
+    /**
+     * The error that stopped the log from being written, if any.  Set with
+     * {@code flushLock} held; read without it to refuse changes early.
+     */
+    private volatile IOException failure;
+
+    private final long syncInterval;
+    private final ScheduledExecutorService background;
+    private Future<?> checkpoint;   // the checkpoint being written, if any
+    private boolean closed;
+
+    /**
+     * Opens the durable symbol table kept in {@code directory}, creating it
+     * if needed, and recovers its contents from the files there.  Changes
+     * are forced to disk every {@code syncInterval} milliseconds, or before
+     * each change returns if it is 0.
+     */
+    public DurableAVLTreeST(Path directory, Codec<Key> keyCodec, Codec<Value> valueCodec, long syncInterval)
+            throws IOException {
+        if (directory == null) throw new IllegalArgumentException("first argument to DurableAVLTreeST() is null");
+        if (keyCodec == null) throw new IllegalArgumentException("second argument to DurableAVLTreeST() is null");
+        if (valueCodec == null) throw new IllegalArgumentException("third argument to DurableAVLTreeST() is null");
+        if (syncInterval < 0) throw new IllegalArgumentException("sync interval is negative");
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.syncInterval = syncInterval;
+        Files.createDirectories(directory);
+        recover();
+        background = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "DurableAVLTreeST " + directory);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (syncInterval > 0) {
+            // An exception escaping the task would silently cancel every later
+            // run, so none does: write() keeps the failure for the writers.
+            background.scheduleWithFixedDelay(() -> {
+                synchronized (flushLock) {
+                    if (failure != null) return;
+                    try {
+                        flush();
+                    }
+                    catch (IOException | IllegalStateException e) {
+                        // Reported by the next change, sync or close.
+                    }
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the file of the given kind and generation.
+     */
+    private Path file(String kind, long generation) {
+        return directory.resolve(kind + "-" + generation);
+    }
+
+    /**
+     * Forces the directory to disk, making the creation, renaming and
+     * deletion of the files in it durable.
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Returns the generations of the files of the given kind, in increasing
+     * order.
+     */
+    private List<Long> generations(String kind) throws IOException {
+        List<Long> generations = new ArrayList<Long>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, kind + "-*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(kind.length() + 1);
+                if (suffix.matches("[0-9]+")) generations.add(Long.parseLong(suffix));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Loads the newest snapshot, replays the logs written after it and opens
+     * the last log for appending.  Files left over from before the snapshot
+     * are deleted, as are snapshots whose writing was cut short.
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.tmp")) {
+            for (Path file : files) Files.delete(file);
+        }
+        List<Long> snapshots = generations("snapshot");
+        generation = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        if (!snapshots.isEmpty()) {
+            MappedST<Key, Value> snapshot = MappedST.open(file("snapshot", generation), keyCodec, valueCodec);
+            st.union(AVLTreeST.fromSortedIterator(snapshot.keys().iterator(), snapshot.valueIterator(), snapshot.size()));
+        }
+        for (long g : generations("log")) {
+            if (g < generation) Files.delete(file("log", g));
+            else {
+                generation = g;
+                replay(file("log", g));
+            }
+        }
+        for (long g : snapshots) {
+            if (g < snapshots.get(snapshots.size() - 1)) Files.delete(file("snapshot", g));
+        }
+        log = FileChannel.open(file("log", generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.position(log.size());
+        forceDirectory();
+    }
+
+    /**
+     * Applies the records of a log file to the tree, stopping at the first
+     * one that is incomplete or fails its checksum, and cuts the file off
+     * there.
+     */
+    private void replay(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int valid = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 2 * Integer.BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) break;
+            int body = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), body, length);
+            if ((int) crc.getValue() != checksum) break;
+            byte op = buffer.get(body);
+            int keyLength = buffer.getInt(body + 1);
+            Key key = keyCodec.decode(buffer, body + 1 + Integer.BYTES, keyLength);
+            if (op == PUT) {
+                int at = body + 1 + Integer.BYTES + keyLength;
+                st.put(key, valueCodec.decode(buffer, at + Integer.BYTES, buffer.getInt(at)));
+            }
+            else st.delete(key);
+            buffer.position(body + length);
+            valid = buffer.position();
+        }
+        if (valid < buffer.capacity()) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the pending ones and returns its sequence number.
+     * Called with the lock on {@code this} held.
+     */
+    private long append(byte op, Key key, Value val) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            byte[] bytes = keyCodec.encode(key);
+            out.writeByte(op);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            if (op == PUT) {
+                bytes = valueCodec.encode(val);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body.toByteArray());
+            out = new DataOutputStream(pending);
+            out.writeInt(body.size());
+            out.writeInt((int) crc.getValue());
+            body.writeTo(pending);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);   // cannot happen writing to memory
+        }
+        return ++appended;
+    }
+
+    /**
+     * Writes the pending records to the log and forces them to disk.
+     * Reports a failed checkpoint.
+     */
+    public void sync() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            reportCheckpoint();
+        }
+    }
+
+    /**
+     * Throws if the table is closed or its log can no longer be written.
+     * Called with the lock on {@code this} held, before a change is made.
+     */
+    private void checkWritable() {
+        if (closed) throw new IllegalStateException("durable symbol table is closed");
+        IOException failure = this.failure;
+        if (failure != null) throw new UncheckedIOException("log of " + directory + " failed", failure);
+    }
+
+    /**
+     * Writes the pending records to the current log and forces it.  Called
+     * with {@code flushLock} held.
+     */
+    private void flush() throws IOException {
+        ByteArrayOutputStream batch;
+        long last;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("durable symbol table is closed");
+            if (failure != null) throw new IOException("log of " + directory + " failed", failure);
+            if (pending.size() == 0) return;
+            batch = pending;
+            last = appended;
+            pending = new ByteArrayOutputStream();
+        }
+        write(batch, last);
+    }
+
+    /**
+     * Writes a batch of records, the last of which has the given sequence
+     * number, to the current log and forces it.  A failure is kept in
+     * {@code failure}, since the batch is lost.  Called with
+     * {@code flushLock} held.
+     */
+    private void write(ByteArrayOutputStream batch, long last) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+            while (buffer.hasRemaining()) log.write(buffer);
+            log.force(false);
+        }
+        catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        durable = last;
+    }
+
+    /**
+     * Returns once the record with the given sequence number is on disk,
+     * forcing the log if the sync interval is 0.  Records appended by other
+     * threads in the meantime are forced along with it.
+     */
+    private void commit(long sequence) {
+        if (syncInterval > 0) return;
+        synchronized (flushLock) {
+            if (durable >= sequence) return;
+            try {
+                flush();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return st.snapshot().isEmpty();
+    }
+
+    /**
+     * Returns the number of key-value pairs in the symbol table.
+     */
+    public int size() {
+        return st.snapshot().size();
+    }
+
+    /**
+     * Returns the value associated with the given key, or {@code null} if
+     * the key is not in the symbol table.  Reads do not lock; they see the
+     * table as of the last completed change.
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        return st.snapshot().get(key);
+    }
+
+    /**
+     * Checks if the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the symbol table, overwriting
+     * the old value with the new value if the symbol table already contains
+     * the specified key.  Deletes the specified key (and its associated
+     * value) from this symbol table if the specified value is {@code null}.
+     */
+    public void put(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            sequence = append(PUT, key, val);
+            st.put(key, val);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Removes the specified key and its associated value from the symbol
+     * table (if the key is in the symbol table).
+     */
+    public void delete(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to delete() is null");
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            if (!st.contains(key)) return;
+            sequence = append(DELETE, key, null);
+            st.delete(key);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     */
+    public void deleteMin() {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            Key key = st.min();
+            sequence = append(DELETE, key, null);
+            st.delete(key);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Removes the largest key and associated value from the symbol table.
+     */
+    public void deleteMax() {
+        long sequence;
+        synchronized (this) {
+            checkWritable();
+            Key key = st.max();
+            sequence = append(DELETE, key, null);
+            st.delete(key);
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Returns a persistent snapshot of the table as of the last completed
+     * change, for queries beyond those offered here.
+     */
+    public AVLTreeST<Key, Value> snapshot() {
+        return st.snapshot();
+    }
+
+    /**
+     * Starts a new log and writes a snapshot of the table in the
+     * background, after which the older files are deleted.  Returns at once;
+     * a checkpoint already under way is not started again.
+     */
+    public void checkpoint() throws IOException {
+        AVLTreeST<Key, Value> snapshot;
+        long next;
+        synchronized (flushLock) {
+            if (checkpoint != null && !checkpoint.isDone()) return;
+            reportCheckpoint();
+            flush();
+            next = generation + 1;
+            FileChannel newLog = FileChannel.open(file("log", next), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                forceDirectory();
+            }
+            catch (IOException e) {
+                newLog.close();
+                throw e;
+            }
+            synchronized (this) {
+                if (pending.size() > 0) {
+                    write(pending, appended);
+                    pending = new ByteArrayOutputStream();
+                }
+                snapshot = st.snapshot();
+            }
+            log.close();
+            log = newLog;
+            generation = next;
+            checkpoint = background.submit(() -> {
+                try {
+                    snapshot.writeSnapshot(file("snapshot", next), keyCodec, valueCodec);
+                    forceDirectory();
+                    for (long g : generations("log")) {
+                        if (g < next) Files.delete(file("log", g));
+                    }
+                    for (long g : generations("snapshot")) {
+                        if (g < next) Files.delete(file("snapshot", g));
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Throws the error of the last checkpoint, if it has finished and
+     * failed.  Called with {@code flushLock} held.
+     */
+    private void reportCheckpoint() throws IOException {
+        if (checkpoint == null || !checkpoint.isDone()) return;
+        Future<?> done = checkpoint;
+        checkpoint = null;
+        try {
+            done.get();
+        }
+        catch (ExecutionException e) {
+            throw new IOException("checkpoint of " + directory + " failed", e.getCause());
+        }
+        catch (InterruptedException e) {
+            throw new AssertionError(e);   // cannot happen, the checkpoint is done
+        }
+    }
+
+    /**
+     * Forces the pending records to disk, waits for a checkpoint under way
+     * to finish and closes the log.  The table is closed even if that fails;
+     * a failure to write the log, or a failed checkpoint, is then thrown.
+     */
+    public void close() throws IOException {
+        IOException error = null;
+        synchronized (flushLock) {
+            if (closed) return;
+            try {
+                flush();
+            }
+            catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                closed = true;
+            }
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (flushLock) {
+            log.close();
+            try {
+                reportCheckpoint();
+            }
+            catch (IOException e) {
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+        }
+        if (error != null) throw error;
+    }
+}
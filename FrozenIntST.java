@@ -0,0 +1,239 @@
+/******************************************************************************
+ *  The class represents a read-only symbol table with int keys, as exported
+ *  by IntAVLTreeST.freeze().  It has the same Eytzinger layout as FrozenST,
+ *  but the keys are primitive ints, so a search reads one array of ints
+ *  and never touches a key object.
+ *
+ *  Since there is no null int, floor() and ceiling() report a missing key
+ *  by throwing NoSuchElementException.
+ *
+ *  FrozenLongST is the same class with long keys.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.PrimitiveIterator;
+import java.util.NoSuchElementException;
+
+public class FrozenIntST<Value> {
+    private final int n;            // number of keys
+    private final int[] keys;       // keys in Eytzinger order
+    private final Value[] vals;     // the associated values
+    private final int[] rank;       // the rank of the key in each slot
+
+    /**
+     * Initializes a symbol table holding the given key-value pairs.  The keys
+     * must be in strictly increasing order; the arrays are not kept.
+     */
+    @SuppressWarnings("unchecked")
+    FrozenIntST(int[] sortedKeys, Value[] sortedVals) {
+        n = sortedKeys.length;
+        keys = new int[n + 1];
+        vals = (Value[]) new Object[n + 1];
+        rank = new int[n + 1];
+        int slot = first();
+        for (int i = 0; i < n; i++) {
+            keys[slot] = sortedKeys[i];
+            vals[slot] = sortedVals[i];
+            rank[slot] = i;
+            slot = successor(slot);
+        }
+    }
+
+    /**
+     * Returns the slot of the smallest key, or 0 if there is none.
+     */
+    private int first() {
+        if (n == 0) return 0;
+        int slot = 1;
+        while (2 * slot <= n) slot = 2 * slot;
+        return slot;
+    }
+
+    /**
+     * Returns the slot of the next key in order, or 0 after the last one, as
+     * in FrozenST.
+     */
+    private int successor(int slot) {
+        if (2 * slot + 1 <= n) {
+            slot = 2 * slot + 1;
+            while (2 * slot <= n) slot = 2 * slot;
+            return slot;
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than or equal to
+     * {@code key}, or 0 if there is none.
+     */
+    private int lowerBound(int key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot] < key ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than {@code key}, or 0 if
+     * there is none.
+     */
+    private int upperBound(int key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot] <= key ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the key of rank {@code k}.
+     */
+    private int slotOf(int k) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (rank[slot] < k ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of key-value pairs in the symbol table.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the value associated with the given key, or {@code null} if
+     * the key is not in the symbol table.
+     */
+    public Value get(int key) {
+        int slot = lowerBound(key);
+        if (slot == 0 || keys[slot] != key) return null;
+        return vals[slot];
+    }
+
+    /**
+     * Checks if the symbol table contains the given key.
+     */
+    public boolean contains(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public int min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return keys[first()];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public int max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int slot = 1;
+        while (2 * slot + 1 <= n) slot = 2 * slot + 1;
+        return keys[slot];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}.
+     */
+    public int floor(int key) {
+        int slot = upperBound(key);
+        int k = slot == 0 ? n : rank[slot];
+        if (k == 0) throw new NoSuchElementException("no key less than or equal to " + key);
+        return keys[slotOf(k - 1)];
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}.
+     */
+    public int ceiling(int key) {
+        int slot = lowerBound(key);
+        if (slot == 0) throw new NoSuchElementException("no key greater than or equal to " + key);
+        return keys[slot];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(int key) {
+        int slot = lowerBound(key);
+        return slot == 0 ? n : rank[slot];
+    }
+
+    /**
+     * Returns the key of the given rank.
+     */
+    public int select(int k) {
+        if (k < 0 || k >= n) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        return keys[slotOf(k)];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(int lo, int hi) {
+        if (lo > hi) return 0;
+        int upper = upperBound(hi);
+        return (upper == 0 ? n : rank[upper]) - rank(lo);
+    }
+
+    /**
+     * Returns an iterator over all keys in the symbol table, in order.
+     */
+    public PrimitiveIterator.OfInt keys() {
+        return new KeyIterator(first(), false, 0);
+    }
+
+    /**
+     * Returns an iterator over the keys in the symbol table in the given
+     * range, in order.
+     */
+    public PrimitiveIterator.OfInt keys(int lo, int hi) {
+        return new KeyIterator(lowerBound(lo), true, hi);
+    }
+
+    /**
+     * Iterates over the slots in order from a given one, stopping after
+     * {@code hi} if {@code bounded}.
+     */
+    private class KeyIterator implements PrimitiveIterator.OfInt {
+        private int slot;
+        private final boolean bounded;
+        private final int hi;
+
+        public KeyIterator(int slot, boolean bounded, int hi) {
+            this.slot = slot;
+            this.bounded = bounded;
+            this.hi = hi;
+        }
+
+        public boolean hasNext() {
+            return slot != 0 && (!bounded || keys[slot] <= hi);
+        }
+
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int key = keys[slot];
+            slot = successor(slot);
+            return key;
+        }
+    }
+}
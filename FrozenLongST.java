@@ -0,0 +1,239 @@
+/******************************************************************************
+ *  The class represents a read-only symbol table with long keys, as exported
+ *  by LongAVLTreeST.freeze().  It has the same Eytzinger layout as FrozenST,
+ *  but the keys are primitive longs, so a search reads one array of longs
+ *  and never touches a key object.
+ *
+ *  Since there is no null long, floor() and ceiling() report a missing key
+ *  by throwing NoSuchElementException.
+ *
+ *  FrozenIntST is the same class with int keys.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.PrimitiveIterator;
+import java.util.NoSuchElementException;
+
+public class FrozenLongST<Value> {
+    private final int n;            // number of keys
+    private final long[] keys;      // keys in Eytzinger order
+    private final Value[] vals;     // the associated values
+    private final int[] rank;       // the rank of the key in each slot
+
+    /**
+     * Initializes a symbol table holding the given key-value pairs.  The keys
+     * must be in strictly increasing order; the arrays are not kept.
+     */
+    @SuppressWarnings("unchecked")
+    FrozenLongST(long[] sortedKeys, Value[] sortedVals) {
+        n = sortedKeys.length;
+        keys = new long[n + 1];
+        vals = (Value[]) new Object[n + 1];
+        rank = new int[n + 1];
+        int slot = first();
+        for (int i = 0; i < n; i++) {
+            keys[slot] = sortedKeys[i];
+            vals[slot] = sortedVals[i];
+            rank[slot] = i;
+            slot = successor(slot);
+        }
+    }
+
+    /**
+     * Returns the slot of the smallest key, or 0 if there is none.
+     */
+    private int first() {
+        if (n == 0) return 0;
+        int slot = 1;
+        while (2 * slot <= n) slot = 2 * slot;
+        return slot;
+    }
+
+    /**
+     * Returns the slot of the next key in order, or 0 after the last one, as
+     * in FrozenST.
+     */
+    private int successor(int slot) {
+        if (2 * slot + 1 <= n) {
+            slot = 2 * slot + 1;
+            while (2 * slot <= n) slot = 2 * slot;
+            return slot;
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than or equal to
+     * {@code key}, or 0 if there is none.
+     */
+    private int lowerBound(long key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot] < key ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than {@code key}, or 0 if
+     * there is none.
+     */
+    private int upperBound(long key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot] <= key ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the key of rank {@code k}.
+     */
+    private int slotOf(int k) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (rank[slot] < k ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of key-value pairs in the symbol table.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the value associated with the given key, or {@code null} if
+     * the key is not in the symbol table.
+     */
+    public Value get(long key) {
+        int slot = lowerBound(key);
+        if (slot == 0 || keys[slot] != key) return null;
+        return vals[slot];
+    }
+
+    /**
+     * Checks if the symbol table contains the given key.
+     */
+    public boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public long min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return keys[first()];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public long max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int slot = 1;
+        while (2 * slot + 1 <= n) slot = 2 * slot + 1;
+        return keys[slot];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}.
+     */
+    public long floor(long key) {
+        int slot = upperBound(key);
+        int k = slot == 0 ? n : rank[slot];
+        if (k == 0) throw new NoSuchElementException("no key less than or equal to " + key);
+        return keys[slotOf(k - 1)];
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}.
+     */
+    public long ceiling(long key) {
+        int slot = lowerBound(key);
+        if (slot == 0) throw new NoSuchElementException("no key greater than or equal to " + key);
+        return keys[slot];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(long key) {
+        int slot = lowerBound(key);
+        return slot == 0 ? n : rank[slot];
+    }
+
+    /**
+     * Returns the key of the given rank.
+     */
+    public long select(int k) {
+        if (k < 0 || k >= n) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        return keys[slotOf(k)];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(long lo, long hi) {
+        if (lo > hi) return 0;
+        int upper = upperBound(hi);
+        return (upper == 0 ? n : rank[upper]) - rank(lo);
+    }
+
+    /**
+     * Returns an iterator over all keys in the symbol table, in order.
+     */
+    public PrimitiveIterator.OfLong keys() {
+        return new KeyIterator(first(), false, 0);
+    }
+
+    /**
+     * Returns an iterator over the keys in the symbol table in the given
+     * range, in order.
+     */
+    public PrimitiveIterator.OfLong keys(long lo, long hi) {
+        return new KeyIterator(lowerBound(lo), true, hi);
+    }
+
+    /**
+     * Iterates over the slots in order from a given one, stopping after
+     * {@code hi} if {@code bounded}.
+     */
+    private class KeyIterator implements PrimitiveIterator.OfLong {
+        private int slot;
+        private final boolean bounded;
+        private final long hi;
+
+        public KeyIterator(int slot, boolean bounded, long hi) {
+            this.slot = slot;
+            this.bounded = bounded;
+            this.hi = hi;
+        }
+
+        public boolean hasNext() {
+            return slot != 0 && (!bounded || keys[slot] <= hi);
+        }
+
+        public long nextLong() {
+            if (!hasNext()) throw new NoSuchElementException();
+            long key = keys[slot];
+            slot = successor(slot);
+            return key;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/******************************************************************************
+ *  The class represents a read-only symbol table, as exported by
+ *  AVLTreeST.freeze().  It is meant for tables that are built once and then
+ *  only searched.
+ *
+ *  The keys are stored in a single array in Eytzinger order: the order in
+ *  which a level-order traversal visits the nodes of a perfectly balanced
+ *  BST.  Slot 1 holds the root and the children of slot k are in slots 2k
+ *  and 2k + 1, so a search follows array indices instead of references, and
+ *  the first levels of every search share a few cache lines that stay hot.
+ *  The values and the rank of every key are kept in parallel arrays.
+ *
+ *  Some terms to keep in mind:
+ *
+ *  - slot: An index into the arrays, from 1 to n.  Slot 0 is unused and
+ *  stands for "no key".
+ *
+ *  - lower bound: The slot of the smallest key greater than or equal to the
+ *  one searched for.  A search always descends to the bottom of the tree,
+ *  comparing without branching on the outcome, and then climbs back to the
+ *  last slot where it went left.
+ *
+ *  FrozenLongST and FrozenIntST are the same structure with primitive keys.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class FrozenST<Key extends Comparable<Key>, Value> {
+    private final int n;            // number of keys
+    private final Key[] keys;       // keys in Eytzinger order
+    private final Value[] vals;     // the associated values
+    private final int[] rank;       // the rank of the key in each slot
+
+    /**
+     * Initializes a symbol table holding the given key-value pairs.  The keys
+     * must be in strictly increasing order; the arrays are not kept.
+     */
+    @SuppressWarnings("unchecked")
+    FrozenST(Key[] sortedKeys, Value[] sortedVals) {
+        n = sortedKeys.length;
+        keys = (Key[]) new Comparable[n + 1];
+        vals = (Value[]) new Object[n + 1];
+        rank = new int[n + 1];
+        int slot = first();
+        for (int i = 0; i < n; i++) {
+            keys[slot] = sortedKeys[i];
+            vals[slot] = sortedVals[i];
+            rank[slot] = i;
+            slot = successor(slot);
+        }
+    }
+
+    /**
+     * Returns the slot of the smallest key, or 0 if there is none.
+     */
+    private int first() {
+        if (n == 0) return 0;
+        int slot = 1;
+        while (2 * slot <= n) slot = 2 * slot;
+        return slot;
+    }
+
+    /**
+     * Returns the slot of the next key in order, or 0 after the last one.
+     * From a slot with a right child this is the leftmost slot below it;
+     * otherwise it is the first ancestor whose left subtree holds the slot,
+     * found by dropping the trailing 1 bits of the slot and one more bit.
+     */
+    private int successor(int slot) {
+        if (2 * slot + 1 <= n) {
+            slot = 2 * slot + 1;
+            while (2 * slot <= n) slot = 2 * slot;
+            return slot;
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than or equal to
+     * {@code key}, or 0 if there is none.
+     */
+    private int lowerBound(Key key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot].compareTo(key) < 0 ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the smallest key greater than {@code key}, or 0 if
+     * there is none.
+     */
+    private int upperBound(Key key) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (keys[slot].compareTo(key) <= 0 ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Returns the slot of the key of rank {@code k}.  The ranks are in
+     * Eytzinger order as well, so this is a lower-bound search on them.
+     */
+    private int slotOf(int k) {
+        int slot = 1;
+        while (slot <= n) {
+            slot = 2 * slot + (rank[slot] < k ? 1 : 0);
+        }
+        return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of key-value pairs in the symbol table.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the value associated with the given key, or {@code null} if
+     * the key is not in the symbol table.  Unlike the other searches this
+     * one stops at an equal key: every compare already costs a reference to
+     * follow, so saving the last levels matters more than avoiding the
+     * branch.
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        int slot = 1;
+        while (slot <= n) {
+            int cmp = key.compareTo(keys[slot]);
+            if (cmp == 0) return vals[slot];
+            slot = 2 * slot + (cmp > 0 ? 1 : 0);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return keys[first()];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int slot = 1;
+        while (2 * slot + 1 <= n) slot = 2 * slot + 1;
+        return keys[slot];
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key floor(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to floor() is null");
+        if (isEmpty()) throw new NoSuchElementException("called floor() with empty symbol table");
+        int slot = upperBound(key);
+        int k = slot == 0 ? n : rank[slot];
+        if (k == 0) return null;
+        return keys[slotOf(k - 1)];
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key ceiling(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to ceiling() is null");
+        if (isEmpty()) throw new NoSuchElementException("called ceiling() with empty symbol table");
+        int slot = lowerBound(key);
+        if (slot == 0) return null;
+        return keys[slot];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to rank() is null");
+        int slot = lowerBound(key);
+        return slot == 0 ? n : rank[slot];
+    }
+
+    /**
+     * Returns the key of the given rank.
+     */
+    public Key select(int k) {
+        if (k < 0 || k >= n) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        return keys[slotOf(k)];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        int upper = upperBound(hi);
+        return (upper == 0 ? n : rank[upper]) - rank(lo);
+    }
+
+    /**
+     * Returns all keys in the symbol table, in order.
+     */
+    public Iterable<Key> keys() {
+        return () -> new KeyIterator(first(), null);
+    }
+
+    /**
+     * Returns all keys in the symbol table in the given range, in order.
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        return () -> new KeyIterator(lowerBound(lo), hi);
+    }
+
+    /**
+     * Iterates over the slots in order from a given one, stopping after
+     * {@code hi} unless it is {@code null}.
+     */
+    private class KeyIterator implements Iterator<Key> {
+        private int slot;
+        private final Key hi;
+
+        public KeyIterator(int slot, Key hi) {
+            this.slot = slot;
+            this.hi = hi;
+        }
+
+        public boolean hasNext() {
+            return slot != 0 && (hi == null || keys[slot].compareTo(hi) <= 0);
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Key key = keys[slot];
+            slot = successor(slot);
+            return key;
+        }
+    }
+}
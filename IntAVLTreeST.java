@@ -0,0 +1,642 @@
+/******************************************************************************
+ *  The class represents a symbol table with int keys implemented using an
+ *  AVL tree.  It is laid out like ArrayAVLTreeST, with the fields of the nodes
+ *  in parallel arrays, but the keys are stored as primitive ints.  Keys are
+ *  never boxed and are compared with plain arithmetic, so lookups and updates
+ *  allocate nothing and make no calls through Comparable.
+ *
+ *  Since an int key cannot be null, methods never reject a key.  A missing
+ *  key is still reported by get() returning null.
+ *
+ *  LongAVLTreeST is the same class with long keys.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.NoSuchElementException;
+
+import stdlib.*;
+
+
+public class IntAVLTreeST<Value> {
+
+    /**
+     * The slot standing for the empty tree.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * An upper bound on the number of nodes on any root-to-leaf path, as in
+     * AVLTreeST.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The fields of the nodes, indexed by slot.
+     */
+    private int[] keys;     // the keys
+    private Value[] vals;   // the associated values
+    private int[] height;   // heights of the subtrees
+    private int[] size;     // numbers of nodes in the subtrees
+    private int[] left;     // left subtrees, or the next free slot
+    private int[] right;    // right subtrees
+
+    /**
+     * Scratch space for the search path of put and the deletes, kept so that
+     * they do not allocate.
+     */
+    private final int[] path = new int[MAX_DEPTH];
+
+    /**
+     * The root slot.
+     */
+    private int root;
+
+    /**
+     * The first slot that has never been used.
+     */
+    private int next;
+
+    /**
+     * The first slot of the free list, or NIL if it is empty.
+     */
+    private int free;
+
+    /**
+     * Initializes an empty symbol table.
+     */
+    public IntAVLTreeST() {
+        this(16);
+    }
+
+    /**
+     * Initializes an empty symbol table with room for {@code capacity} keys
+     * before the arrays have to grow.
+     */
+    @SuppressWarnings("unchecked")
+    public IntAVLTreeST(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity is negative");
+        int slots = capacity + 1;
+        keys = new int[slots];
+        vals = (Value[]) new Object[slots];
+        height = new int[slots];
+        size = new int[slots];
+        left = new int[slots];
+        right = new int[slots];
+        height[NIL] = -1;
+        root = NIL;
+        next = 1;
+        free = NIL;
+    }
+
+    /**
+     * Returns a slot holding a new leaf with the given key and value, reusing
+     * a freed slot if there is one.
+     */
+    private int allocate(int key, Value val) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        }
+        else {
+            if (next == keys.length) resize(2 * keys.length);
+            node = next++;
+        }
+        keys[node] = key;
+        vals[node] = val;
+        height[node] = 0;
+        size[node] = 1;
+        left[node] = NIL;
+        right[node] = NIL;
+        return node;
+    }
+
+    /**
+     * Puts a slot back on the free list, dropping its value so it can be
+     * garbage collected.
+     */
+    private void release(int node) {
+        vals[node] = null;
+        left[node] = free;
+        free = node;
+    }
+
+    /**
+     * Moves the nodes to arrays with the given number of slots.
+     */
+    private void resize(int slots) {
+        keys = Arrays.copyOf(keys, slots);
+        vals = Arrays.copyOf(vals, slots);
+        height = Arrays.copyOf(height, slots);
+        size = Arrays.copyOf(size, slots);
+        left = Arrays.copyOf(left, slots);
+        right = Arrays.copyOf(right, slots);
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    /**
+     * Returns the number key-value pairs in the symbol table.
+     */
+    public int size() {
+        return size[root];
+    }
+
+    /**
+     * Returns the height of the internal AVL tree. It is assumed that the
+     * height of an empty tree is -1 and the height of a tree with just one node
+     * is 0.
+     */
+    public int height() {
+        return height[root];
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     */
+    public Value get(int key) {
+        return vals[find(key)];
+    }
+
+    /**
+     * Returns the slot holding the given key, or NIL if there is none.
+     */
+    private int find(int key) {
+        int node = root;
+        while (node != NIL) {
+            int cmp = Integer.compare(key, keys[node]);
+            if (cmp < 0) node = left[node];
+            else if (cmp > 0) node = right[node];
+            else return node;
+        }
+        return NIL;
+    }
+
+    /**
+     * Checks whether the symbol table contains the given key.
+     */
+    public boolean contains(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the symbol table, overwriting
+     * the old value with the new value if the symbol table already contains the
+     * specified key. Deletes the specified key (and its associated value) from
+     * this symbol table if the specified value is {@code null}.
+     */
+    public void put(int key, Value val) {
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        if (root == NIL) {
+            root = allocate(key, val);
+            return;
+        }
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int cmp = Integer.compare(key, keys[node]);
+            if (cmp == 0) {
+                vals[node] = val;
+                return;
+            }
+            path[depth++] = node;
+            int child = cmp < 0 ? left[node] : right[node];
+            if (child == NIL) {
+                int leaf = allocate(key, val);
+                if (cmp < 0) left[node] = leaf;
+                else right[node] = leaf;
+                break;
+            }
+            node = child;
+        }
+        retrace(path, depth, 1);
+        assert check();
+    }
+
+    /**
+     * Walks back up the search path after a node was added below it
+     * ({@code delta} is 1) or removed from below it ({@code delta} is -1),
+     * adjusting sizes all the way and heights until they stop changing.
+     */
+    private void retrace(int[] path, int depth, int delta) {
+        boolean rebalancing = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            size[node] += delta;
+            if (!rebalancing) continue;
+            int oldHeight = height[node];
+            height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+            int subtree = balance(node);
+            if (subtree != node) {
+                replaceChild(i == 0 ? NIL : path[i - 1], node, subtree);
+            }
+            if (height[subtree] == oldHeight) rebalancing = false;
+        }
+    }
+
+    /**
+     * Makes {@code replacement} take the place of {@code child} under
+     * {@code parent}, or at the root if {@code parent} is NIL.
+     */
+    private void replaceChild(int parent, int child, int replacement) {
+        if (parent == NIL) root = replacement;
+        else if (left[parent] == child) left[parent] = replacement;
+        else right[parent] = replacement;
+    }
+
+    /**
+     * Restores the AVL tree property of the subtree.
+     */
+    private int balance(int node) {
+        if (balanceFactor(node) < -1) {
+            if (balanceFactor(right[node]) > 0) {
+                right[node] = rotateRight(right[node]);
+            }
+            node = rotateLeft(node);
+        }
+        else if (balanceFactor(node) > 1) {
+            if (balanceFactor(left[node]) < 0) {
+                left[node] = rotateLeft(left[node]);
+            }
+            node = rotateRight(node);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the balance factor of the subtree.
+     */
+    private int balanceFactor(int node) {
+        return height[left[node]] - height[right[node]];
+    }
+
+    /**
+     * Rotates the given subtree to the right.
+     */
+    private int rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        right[child] = node;
+        size[child] = size[node];
+        size[node] = 1 + size[left[node]] + size[right[node]];
+        height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+        height[child] = 1 + Math.max(height[left[child]], height[right[child]]);
+        return child;
+    }
+
+    /**
+     * Rotates the given subtree to the left.
+     */
+    private int rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        left[child] = node;
+        size[child] = size[node];
+        size[node] = 1 + size[left[node]] + size[right[node]];
+        height[node] = 1 + Math.max(height[left[node]], height[right[node]]);
+        height[child] = 1 + Math.max(height[left[child]], height[right[child]]);
+        return child;
+    }
+
+    /**
+     * Removes the specified key and its associated value from the symbol table
+     * (if the key is in the symbol table).
+     */
+    public void delete(int key) {
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = Integer.compare(key, keys[node]);
+            if (cmp == 0) break;
+            path[depth++] = node;
+            node = cmp < 0 ? left[node] : right[node];
+        }
+        if (node == NIL) return;
+        depth = unlink(path, depth, node);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Detaches {@code node} from the tree, given the search path leading to
+     * it.  A node with two children is replaced by the smallest node of its
+     * right subtree; the path is extended down to where that node was taken
+     * from, and its new length is returned for retracing.
+     */
+    private int unlink(int[] path, int depth, int node) {
+        int parent = depth == 0 ? NIL : path[depth - 1];
+        if (left[node] == NIL) {
+            replaceChild(parent, node, right[node]);
+            return depth;
+        }
+        if (right[node] == NIL) {
+            replaceChild(parent, node, left[node]);
+            return depth;
+        }
+        int slot = depth++;
+        int successor = right[node];
+        while (left[successor] != NIL) {
+            path[depth++] = successor;
+            successor = left[successor];
+        }
+        if (successor == right[node]) right[node] = right[successor];
+        else left[path[depth - 1]] = right[successor];
+        left[successor] = left[node];
+        right[successor] = right[node];
+        height[successor] = height[node];
+        size[successor] = size[node];
+        path[slot] = successor;
+        replaceChild(parent, node, successor);
+        return depth;
+    }
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMin() with empty symbol table");
+        int depth = 0;
+        int node = root;
+        while (left[node] != NIL) {
+            path[depth++] = node;
+            node = left[node];
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, right[node]);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Removes the largest key and associated value from the symbol table.
+     */
+    public void deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMax() with empty symbol table");
+        int depth = 0;
+        int node = root;
+        while (right[node] != NIL) {
+            path[depth++] = node;
+            node = right[node];
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, left[node]);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public int min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        int node = root;
+        while (left[node] != NIL) node = left[node];
+        return keys[node];
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public int max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int node = root;
+        while (right[node] != NIL) node = right[node];
+        return keys[node];
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(int key) {
+        int rank = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = Integer.compare(key, keys[node]);
+            if (cmp < 0) node = left[node];
+            else if (cmp > 0) {
+                rank += 1 + size[left[node]];
+                node = right[node];
+            }
+            else return rank + size[left[node]];
+        }
+        return rank;
+    }
+
+    /**
+     * Returns an iterator over all keys in the symbol table, in order.  The
+     * symbol table should not be modified while an iteration is in progress.
+     */
+    public PrimitiveIterator.OfInt keys() {
+        return new KeyIterator(0, true, false, 0);
+    }
+
+    /**
+     * Returns an iterator over all keys in the symbol table following a
+     * level-order traversal.
+     */
+    public PrimitiveIterator.OfInt keysLevelOrder() {
+        return new LevelOrderIterator();
+    }
+
+    /**
+     * Returns an iterator over the keys in the symbol table in the given
+     * range, in order.
+     */
+    public PrimitiveIterator.OfInt keys(int lo, int hi) {
+        return new KeyIterator(lo, true, true, hi);
+    }
+
+    /**
+     * Returns an iterator over the keys in the symbol table strictly greater
+     * than {@code from} and no greater than {@code hi}, in order.
+     */
+    public PrimitiveIterator.OfInt keysAfter(int from, int hi) {
+        return new KeyIterator(from, false, true, hi);
+    }
+
+    /**
+     * Iterates over keys in order, starting at {@code lo} and stopping after
+     * {@code hi} if {@code bounded}, keeping a stack of at most one slot per
+     * level.
+     */
+    private class KeyIterator implements PrimitiveIterator.OfInt {
+        private final int[] stack = new int[MAX_DEPTH];
+        private int depth;
+        private final boolean bounded;
+        private final int hi;
+
+        public KeyIterator(int lo, boolean inclusive, boolean bounded, int hi) {
+            this.bounded = bounded;
+            this.hi = hi;
+            int node = root;
+            while (node != NIL) {
+                int cmp = bounded ? Integer.compare(lo, keys[node]) : -1;
+                if (cmp < 0) {
+                    stack[depth++] = node;
+                    node = left[node];
+                }
+                else if (cmp > 0 || !inclusive) {
+                    node = right[node];
+                }
+                else {
+                    stack[depth++] = node;
+                    break;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            if (depth == 0) return false;
+            return !bounded || keys[stack[depth - 1]] <= hi;
+        }
+
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int node = stack[--depth];
+            for (int x = right[node]; x != NIL; x = left[x]) {
+                stack[depth++] = x;
+            }
+            return keys[node];
+        }
+    }
+
+    /**
+     * Iterates over keys level by level using a ring buffer of slots.
+     */
+    private class LevelOrderIterator implements PrimitiveIterator.OfInt {
+        private final int[] queue = new int[size() / 2 + 2];
+        private int head;
+        private int count;
+
+        public LevelOrderIterator() {
+            if (root != NIL) enqueue(root);
+        }
+
+        private void enqueue(int node) {
+            queue[(head + count++) % queue.length] = node;
+        }
+
+        public boolean hasNext() {
+            return count > 0;
+        }
+
+        public int nextInt() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int node = queue[head];
+            head = (head + 1) % queue.length;
+            count--;
+            if (left[node] != NIL) enqueue(left[node]);
+            if (right[node] != NIL) enqueue(right[node]);
+            return keys[node];
+        }
+    }
+
+    /**
+     * Returns a read-only copy of the symbol table laid out for fast
+     * searching, in linear time.  Later changes to this symbol table do not
+     * affect the copy.
+     */
+    @SuppressWarnings("unchecked")
+    public FrozenIntST<Value> freeze() {
+        int[] sortedKeys = new int[size()];
+        Value[] sortedVals = (Value[]) new Object[size()];
+        int[] stack = new int[MAX_DEPTH];
+        int depth = 0;
+        int i = 0;
+        int node = root;
+        while (node != NIL || depth > 0) {
+            if (node != NIL) {
+                stack[depth++] = node;
+                node = left[node];
+            }
+            else {
+                node = stack[--depth];
+                sortedKeys[i] = keys[node];
+                sortedVals[i++] = vals[node];
+                node = right[node];
+            }
+        }
+        return new FrozenIntST<Value>(sortedKeys, sortedVals);
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(int lo, int hi) {
+        if (lo > hi) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Checks if the AVL tree invariants are fine.
+     */
+    private boolean check() {
+        if (!isBST()) StdOut.println("Symmetric order not consistent");
+        if (!isAVL()) StdOut.println("AVL property not consistent");
+        if (!isSizeConsistent()) StdOut.println("Subtree counts not consistent");
+        return isBST() && isAVL() && isSizeConsistent();
+    }
+
+    /**
+     * Checks if AVL property is consistent.
+     */
+    private boolean isAVL() {
+        return isAVL(root);
+    }
+
+    /**
+     * Checks if AVL property is consistent in the subtree.
+     */
+    private boolean isAVL(int node) {
+        if (node == NIL) return true;
+        int bf = balanceFactor(node);
+        if (bf > 1 || bf < -1) return false;
+        return isAVL(left[node]) && isAVL(right[node]);
+    }
+
+    /**
+     * Checks if the symmetric order is consistent.
+     */
+    private boolean isBST() {
+        PrimitiveIterator.OfInt it = keys();
+        if (!it.hasNext()) return true;
+        int prev = it.nextInt();
+        while (it.hasNext()) {
+            int key = it.nextInt();
+            if (key <= prev) return false;
+            prev = key;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if size is consistent.
+     */
+    private boolean isSizeConsistent() {
+        return isSizeConsistent(root);
+    }
+
+    /**
+     * Checks if the size of the subtree is consistent.
+     */
+    private boolean isSizeConsistent(int node) {
+        if (node == NIL) return true;
+        if (size[node] != size[left[node]] + size[right[node]] + 1) return false;
+        return isSizeConsistent(left[node]) && isSizeConsistent(right[node]);
+    }
+}
@@ -0,0 +1,292 @@
+/******************************************************************************
+ *  The class represents a read-only symbol table served straight from a
+ *  snapshot file written by AVLTreeST.writeSnapshot().  The file is mapped
+ *  into memory when it is opened and nothing is read until a query needs
+ *  it, so opening takes constant time and the operating system pages the
+ *  file in as it is used.  Only the keys a search compares against and the
+ *  value it returns are ever decoded.
+ *
+ *  The file holds, all in big-endian order:
+ *
+ *  - the magic number 0x41564C31 ("AVL1") and the number of pairs n;
+ *
+ *  - an index of n + 1 ints, the file offset of each record in key order
+ *  followed by the offset of the end of the last one;
+ *
+ *  - the records, each a key and then a value, each of them an int length
+ *  followed by that many bytes from a Codec.
+ *
+ *  The index lets a search find the record of any rank directly, so the
+ *  queries are binary searches by rank.  Offsets are ints, which limits a
+ *  snapshot to 2 GB, the most a single MappedByteBuffer can map anyway.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class MappedST<Key extends Comparable<Key>, Value> {
+
+    /**
+     * The first four bytes of a snapshot file.
+     */
+    static final int MAGIC = 0x41564C31;
+
+    /**
+     * The size of the magic number and the count before the index.
+     */
+    static final int HEADER = 2 * Integer.BYTES;
+
+    private final ByteBuffer buffer;       // the mapped file
+    private final int n;                   // number of key-value pairs
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+
+    private MappedST(ByteBuffer buffer, int n, Codec<Key> keyCodec, Codec<Value> valueCodec) {
+        this.buffer = buffer;
+        this.n = n;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    /**
+     * Maps the snapshot file at {@code path} and returns a symbol table
+     * reading from it.  Only the header is checked; a file that is
+     * corrupted further in is reported when a query reaches the damage.
+     */
+    static <Key extends Comparable<Key>, Value> MappedST<Key, Value> open(
+            Path path, Codec<Key> keyCodec, Codec<Value> valueCodec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) throw new IOException(path + " is too large to be a snapshot");
+            if (length < HEADER + Integer.BYTES) throw new IOException(path + " is not a snapshot: too short");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) throw new IOException(path + " is not a snapshot: bad magic number");
+            int n = buffer.getInt(Integer.BYTES);
+            if (n < 0 || HEADER + (n + 1L) * Integer.BYTES > length) throw new IOException(path + " is not a snapshot: bad count " + n);
+            if (buffer.getInt(HEADER + n * Integer.BYTES) != length) throw new IOException(path + " is truncated");
+            return new MappedST<Key, Value>(buffer, n, keyCodec, valueCodec);
+        }
+    }
+
+    /**
+     * Returns the file offset of the record of rank {@code i}.
+     */
+    private int record(int i) {
+        return buffer.getInt(HEADER + i * Integer.BYTES);
+    }
+
+    /**
+     * Returns the key of rank {@code i}.
+     */
+    private Key keyAt(int i) {
+        int offset = record(i);
+        return keyCodec.decode(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+    }
+
+    /**
+     * Returns the value of rank {@code i}.
+     */
+    private Value valueAt(int i) {
+        int offset = record(i);
+        offset += Integer.BYTES + buffer.getInt(offset);
+        return valueCodec.decode(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * Returns the number of key-value pairs in the symbol table.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the value associated with the given key, or {@code null} if
+     * the key is not in the symbol table.
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = key.compareTo(keyAt(mid));
+            if (cmp < 0) hi = mid - 1;
+            else if (cmp > 0) lo = mid + 1;
+            else return valueAt(mid);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return keyAt(0);
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        return keyAt(n - 1);
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to rank() is null");
+        return rank(key, false);
+    }
+
+    /**
+     * Returns the number of keys less than {@code key}, or less than or
+     * equal to it if {@code inclusive}.
+     */
+    private int rank(Key key, boolean inclusive) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = keyAt(mid).compareTo(key);
+            if (cmp < 0 || (cmp == 0 && inclusive)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the key of the given rank.
+     */
+    public Key select(int k) {
+        if (k < 0 || k >= n) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        return keyAt(k);
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key floor(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to floor() is null");
+        if (isEmpty()) throw new NoSuchElementException("called floor() with empty symbol table");
+        int k = rank(key, true);
+        if (k == 0) return null;
+        return keyAt(k - 1);
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key ceiling(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to ceiling() is null");
+        if (isEmpty()) throw new NoSuchElementException("called ceiling() with empty symbol table");
+        int k = rank(key, false);
+        if (k == n) return null;
+        return keyAt(k);
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        return rank(hi, true) - rank(lo, false);
+    }
+
+    /**
+     * Returns all keys in the symbol table, in order.
+     */
+    public Iterable<Key> keys() {
+        return () -> new KeyIterator(0, n);
+    }
+
+    /**
+     * Returns all keys in the symbol table in the given range, in order.
+     * The ends of the range are found by binary search and the keys in
+     * between are decoded as they are returned.
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        return () -> {
+            int from = rank(lo, false);
+            return new KeyIterator(from, Math.max(from, rank(hi, true)));
+        };
+    }
+
+    /**
+     * Returns an iterator over the values in the order of their keys.  Used
+     * to load a snapshot back into an AVLTreeST.
+     */
+    Iterator<Value> valueIterator() {
+        return new ValueIterator();
+    }
+
+    /**
+     * Iterates over the keys whose rank is at least {@code from} and less
+     * than {@code to}.
+     */
+    private class KeyIterator implements Iterator<Key> {
+        private int next;
+        private final int to;
+
+        public KeyIterator(int from, int to) {
+            this.next = from;
+            this.to = to;
+        }
+
+        public boolean hasNext() {
+            return next < to;
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return keyAt(next++);
+        }
+    }
+
+    /**
+     * Iterates over all values by rank.
+     */
+    private class ValueIterator implements Iterator<Value> {
+        private int next;
+
+        public boolean hasNext() {
+            return next < n;
+        }
+
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return valueAt(next++);
+        }
+    }
+}
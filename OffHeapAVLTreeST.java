@@ -0,0 +1,835 @@
+/******************************************************************************
+ *  The class represents a symbol table implemented using an AVL tree whose
+ *  nodes, keys and values all live outside the Java heap.  It is laid out
+ *  like ArrayAVLTreeST, with a node being a slot number, but the fields of
+ *  the slots are kept in direct ByteBuffers, and keys and values are stored
+ *  as bytes produced by a Codec.  However many keys it holds, the garbage
+ *  collector only sees a handful of buffer objects, so the table adds
+ *  nothing to the time taken by a full collection.
+ *
+ *  Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to
+ *  the maximum heap size; large tables need it raised.
+ *
+ *  Some terms to keep in mind, in addition to those in ArrayAVLTreeST:
+ *
+ *  - slab: An allocator of fixed-size blocks carved out of 4 MB direct
+ *  buffers, handing out freed blocks again before carving new ones.  The
+ *  free list is threaded through the first bytes of the free blocks.
+ *
+ *  - node block: The 32 bytes of a node: its left and right slots, size and
+ *  height, and references to the blocks of its key and its value.
+ *
+ *  - size class: Keys and values are stored with a 4-byte length prefix in
+ *  blocks of a power of two bytes, from 8 bytes up to 1 MB, each size
+ *  having a slab of its own.  A reference to one packs the size class in
+ *  its upper 32 bits and the block number in the lower 32.
+ *
+ *  Keys are decoded from their bytes to be compared, so searches allocate
+ *  short-lived objects; only the nodes themselves stay off the heap.
+ *
+ ******************************************************************************/
+
+package avltree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import stdlib.*;
+
+public class OffHeapAVLTreeST<Key extends Comparable<Key>, Value> {
+
+    /**
+     * The slot standing for the empty tree.
+     */
+    private static final int NIL = 0;
+
+    /**
+     * An upper bound on the number of nodes on any root-to-leaf path, as in
+     * AVLTreeST.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The offsets of the fields in a node block, and its size as a power of
+     * two.
+     */
+    private static final int LEFT = 0;
+    private static final int RIGHT = 4;
+    private static final int SIZE = 8;
+    private static final int HEIGHT = 12;
+    private static final int KEY = 16;
+    private static final int VALUE = 24;
+    private static final int NODE_SHIFT = 5;
+
+    /**
+     * The smallest and largest size classes of keys and values, as powers of
+     * two.
+     */
+    private static final int MIN_CLASS = 3;
+    private static final int MAX_CLASS = 20;
+
+    private final Codec<Key> keyCodec;
+    private final Codec<Value> valueCodec;
+    private final Slab nodes = new Slab(NODE_SHIFT, ByteOrder.nativeOrder());
+    private final Slab[] blobs = new Slab[MAX_CLASS + 1];
+
+    /**
+     * Scratch space for the search path of put and the deletes.
+     */
+    private final int[] path = new int[MAX_DEPTH];
+
+    /**
+     * The root slot.
+     */
+    private int root;
+
+    /**
+     * Initializes an empty symbol table storing its keys and values with the
+     * given codecs.
+     */
+    public OffHeapAVLTreeST(Codec<Key> keyCodec, Codec<Value> valueCodec) {
+        if (keyCodec == null) throw new IllegalArgumentException("first argument to OffHeapAVLTreeST() is null");
+        if (valueCodec == null) throw new IllegalArgumentException("second argument to OffHeapAVLTreeST() is null");
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        setHeight(NIL, -1);
+        root = NIL;
+    }
+
+    /**
+     * Hands out fixed-size blocks of off-heap memory.  Block 0 is never
+     * handed out, so 0 can end the free list.  Node slabs use the native
+     * byte order, while key and value slabs are big-endian, the order the
+     * codecs decode in, as they would from a snapshot file.
+     */
+    private static class Slab {
+        private static final int CHUNK_SHIFT = 22;   // 4 MB buffers
+
+        private final int blockShift;    // log2 of the block size
+        private final int chunkShift;    // log2 of the blocks per buffer
+        private final ByteOrder order;
+        private ByteBuffer[] chunks = new ByteBuffer[1];
+        private int next = 1;            // the first block never handed out
+        private int free;                // the first free block, or 0
+
+        public Slab(int blockShift, ByteOrder order) {
+            this.blockShift = blockShift;
+            this.chunkShift = CHUNK_SHIFT - blockShift;
+            this.order = order;
+            chunks[0] = chunk();
+        }
+
+        private ByteBuffer chunk() {
+            return ByteBuffer.allocateDirect(1 << CHUNK_SHIFT).order(order);
+        }
+
+        public int allocate() {
+            if (free != 0) {
+                int block = free;
+                free = getInt(block, 0);
+                return block;
+            }
+            int chunk = next >>> chunkShift;
+            if (chunk == chunks.length) chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+            if (chunks[chunk] == null) chunks[chunk] = chunk();
+            return next++;
+        }
+
+        public void release(int block) {
+            putInt(block, 0, free);
+            free = block;
+        }
+
+        /**
+         * Returns the buffer holding the block.
+         */
+        public ByteBuffer buffer(int block) {
+            return chunks[block >>> chunkShift];
+        }
+
+        /**
+         * Returns the offset of the block in its buffer.
+         */
+        public int offset(int block) {
+            return (block & ((1 << chunkShift) - 1)) << blockShift;
+        }
+
+        public int getInt(int block, int field) {
+            return buffer(block).getInt(offset(block) + field);
+        }
+
+        public void putInt(int block, int field, int x) {
+            buffer(block).putInt(offset(block) + field, x);
+        }
+
+        public long getLong(int block, int field) {
+            return buffer(block).getLong(offset(block) + field);
+        }
+
+        public void putLong(int block, int field, long x) {
+            buffer(block).putLong(offset(block) + field, x);
+        }
+
+        /**
+         * Returns the number of bytes of off-heap memory taken.
+         */
+        public long bytes() {
+            long bytes = 0;
+            for (ByteBuffer chunk : chunks) {
+                if (chunk != null) bytes += chunk.capacity();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns the left subtree of a node.
+     */
+    private int left(int node) {
+        return nodes.getInt(node, LEFT);
+    }
+
+    /**
+     * Returns the right subtree of a node.
+     */
+    private int right(int node) {
+        return nodes.getInt(node, RIGHT);
+    }
+
+    /**
+     * Returns the number of nodes in the subtree of a node.
+     */
+    private int size(int node) {
+        return nodes.getInt(node, SIZE);
+    }
+
+    /**
+     * Returns the height of the subtree of a node.
+     */
+    private int height(int node) {
+        return nodes.getInt(node, HEIGHT);
+    }
+
+    /**
+     * Sets the left subtree of a node.
+     */
+    private void setLeft(int node, int x) {
+        nodes.putInt(node, LEFT, x);
+    }
+
+    /**
+     * Sets the right subtree of a node.
+     */
+    private void setRight(int node, int x) {
+        nodes.putInt(node, RIGHT, x);
+    }
+
+    /**
+     * Sets the number of nodes in the subtree of a node.
+     */
+    private void setSize(int node, int x) {
+        nodes.putInt(node, SIZE, x);
+    }
+
+    /**
+     * Sets the height of the subtree of a node.
+     */
+    private void setHeight(int node, int x) {
+        nodes.putInt(node, HEIGHT, x);
+    }
+
+    /**
+     * Returns the key of a node, decoded from its bytes.
+     */
+    private Key key(int node) {
+        long ref = nodes.getLong(node, KEY);
+        Slab slab = blobs[(int) (ref >>> 32)];
+        int block = (int) ref;
+        ByteBuffer buffer = slab.buffer(block);
+        int offset = slab.offset(block);
+        return keyCodec.decode(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+    }
+
+    /**
+     * Returns the value of a node, decoded from its bytes.
+     */
+    private Value value(int node) {
+        long ref = nodes.getLong(node, VALUE);
+        Slab slab = blobs[(int) (ref >>> 32)];
+        int block = (int) ref;
+        ByteBuffer buffer = slab.buffer(block);
+        int offset = slab.offset(block);
+        return valueCodec.decode(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+    }
+
+    /**
+     * Copies the bytes into a block of the smallest size class that holds
+     * them and their length, and returns a reference to it.
+     */
+    private long store(byte[] bytes) {
+        int needed = Integer.BYTES + bytes.length;
+        int sizeClass = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(needed - 1));
+        if (sizeClass > MAX_CLASS) throw new IllegalArgumentException("key or value of " + bytes.length + " bytes is too large");
+        if (blobs[sizeClass] == null) blobs[sizeClass] = new Slab(sizeClass, ByteOrder.BIG_ENDIAN);
+        Slab slab = blobs[sizeClass];
+        int block = slab.allocate();
+        ByteBuffer buffer = slab.buffer(block);
+        int offset = slab.offset(block);
+        buffer.putInt(offset, bytes.length);
+        buffer.put(offset + Integer.BYTES, bytes);
+        return (long) sizeClass << 32 | block;
+    }
+
+    /**
+     * Frees the block of a key or value.
+     */
+    private void discard(long ref) {
+        blobs[(int) (ref >>> 32)].release((int) ref);
+    }
+
+    /**
+     * Returns a slot holding a new leaf with the given key and value.
+     */
+    private int allocate(Key key, Value val) {
+        int node = nodes.allocate();
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        setSize(node, 1);
+        setHeight(node, 0);
+        nodes.putLong(node, KEY, store(keyCodec.encode(key)));
+        nodes.putLong(node, VALUE, store(valueCodec.encode(val)));
+        return node;
+    }
+
+    /**
+     * Frees a node together with its key and value.
+     */
+    private void release(int node) {
+        discard(nodes.getLong(node, KEY));
+        discard(nodes.getLong(node, VALUE));
+        nodes.release(node);
+    }
+
+    /**
+     * Returns the number of bytes of off-heap memory taken by the symbol
+     * table.  Memory is reused after deletes but not given back.
+     */
+    public long offHeapBytes() {
+        long bytes = nodes.bytes();
+        for (Slab slab : blobs) {
+            if (slab != null) bytes += slab.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks whether the symbol table is empty.
+     */
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    /**
+     * Returns the number key-value pairs in the symbol table.
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the height of the internal AVL tree. It is assumed that the
+     * height of an empty tree is -1 and the height of a tree with just one node
+     * is 0.
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     */
+    public Value get(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        int node = find(key);
+        if (node == NIL) return null;
+        return value(node);
+    }
+
+    /**
+     * Returns the slot holding the given key, or NIL if there is none.
+     */
+    private int find(Key key) {
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(key(node));
+            if (cmp < 0) node = left(node);
+            else if (cmp > 0) node = right(node);
+            else return node;
+        }
+        return NIL;
+    }
+
+    /**
+     * Checks whether the symbol table contains the given key.
+     */
+    public boolean contains(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to contains() is null");
+        return find(key) != NIL;
+    }
+
+    /**
+     * Inserts the specified key-value pair into the symbol table, overwriting
+     * the old value with the new value if the symbol table already contains the
+     * specified key. Deletes the specified key (and its associated value) from
+     * this symbol table if the specified value is {@code null}.
+     */
+    public void put(Key key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == null) {
+            delete(key);
+            return;
+        }
+        if (root == NIL) {
+            root = allocate(key, val);
+            return;
+        }
+        int depth = 0;
+        int node = root;
+        while (true) {
+            int cmp = key.compareTo(key(node));
+            if (cmp == 0) {
+                long old = nodes.getLong(node, VALUE);
+                nodes.putLong(node, VALUE, store(valueCodec.encode(val)));
+                discard(old);
+                return;
+            }
+            path[depth++] = node;
+            int child = cmp < 0 ? left(node) : right(node);
+            if (child == NIL) {
+                int leaf = allocate(key, val);
+                if (cmp < 0) setLeft(node, leaf);
+                else setRight(node, leaf);
+                break;
+            }
+            node = child;
+        }
+        retrace(path, depth, 1);
+        assert check();
+    }
+
+    /**
+     * Walks back up the search path after a node was added below it
+     * ({@code delta} is 1) or removed from below it ({@code delta} is -1),
+     * adjusting sizes all the way and heights until they stop changing.
+     */
+    private void retrace(int[] path, int depth, int delta) {
+        boolean rebalancing = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            setSize(node, size(node) + delta);
+            if (!rebalancing) continue;
+            int oldHeight = height(node);
+            update(node);
+            int subtree = balance(node);
+            if (subtree != node) {
+                replaceChild(i == 0 ? NIL : path[i - 1], node, subtree);
+            }
+            if (height(subtree) == oldHeight) rebalancing = false;
+        }
+    }
+
+    /**
+     * Recomputes the height of a node from its children.
+     */
+    private void update(int node) {
+        setHeight(node, 1 + Math.max(height(left(node)), height(right(node))));
+    }
+
+    /**
+     * Makes {@code replacement} take the place of {@code child} under
+     * {@code parent}, or at the root if {@code parent} is NIL.
+     */
+    private void replaceChild(int parent, int child, int replacement) {
+        if (parent == NIL) root = replacement;
+        else if (left(parent) == child) setLeft(parent, replacement);
+        else setRight(parent, replacement);
+    }
+
+    /**
+     * Restores the AVL tree property of the subtree.
+     */
+    private int balance(int node) {
+        if (balanceFactor(node) < -1) {
+            if (balanceFactor(right(node)) > 0) {
+                setRight(node, rotateRight(right(node)));
+            }
+            node = rotateLeft(node);
+        }
+        else if (balanceFactor(node) > 1) {
+            if (balanceFactor(left(node)) < 0) {
+                setLeft(node, rotateLeft(left(node)));
+            }
+            node = rotateRight(node);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the balance factor of the subtree.
+     */
+    private int balanceFactor(int node) {
+        return height(left(node)) - height(right(node));
+    }
+
+    /**
+     * Rotates the given subtree to the right.
+     */
+    private int rotateRight(int node) {
+        int child = left(node);
+        setLeft(node, right(child));
+        setRight(child, node);
+        setSize(child, size(node));
+        setSize(node, 1 + size(left(node)) + size(right(node)));
+        update(node);
+        update(child);
+        return child;
+    }
+
+    /**
+     * Rotates the given subtree to the left.
+     */
+    private int rotateLeft(int node) {
+        int child = right(node);
+        setRight(node, left(child));
+        setLeft(child, node);
+        setSize(child, size(node));
+        setSize(node, 1 + size(left(node)) + size(right(node)));
+        update(node);
+        update(child);
+        return child;
+    }
+
+    /**
+     * Removes the specified key and its associated value from the symbol table
+     * (if the key is in the symbol table).
+     */
+    public void delete(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to delete() is null");
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(key(node));
+            if (cmp == 0) break;
+            path[depth++] = node;
+            node = cmp < 0 ? left(node) : right(node);
+        }
+        if (node == NIL) return;
+        depth = unlink(path, depth, node);
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Detaches {@code node} from the tree, given the search path leading to
+     * it, as in ArrayAVLTreeST.  Returns the length of the path to retrace.
+     */
+    private int unlink(int[] path, int depth, int node) {
+        int parent = depth == 0 ? NIL : path[depth - 1];
+        if (left(node) == NIL) {
+            replaceChild(parent, node, right(node));
+            return depth;
+        }
+        if (right(node) == NIL) {
+            replaceChild(parent, node, left(node));
+            return depth;
+        }
+        int slot = depth++;
+        int successor = right(node);
+        while (left(successor) != NIL) {
+            path[depth++] = successor;
+            successor = left(successor);
+        }
+        if (successor == right(node)) setRight(node, right(successor));
+        else setLeft(path[depth - 1], right(successor));
+        setLeft(successor, left(node));
+        setRight(successor, right(node));
+        setHeight(successor, height(node));
+        setSize(successor, size(node));
+        path[slot] = successor;
+        replaceChild(parent, node, successor);
+        return depth;
+    }
+
+    /**
+     * Removes the smallest key and associated value from the symbol table.
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMin() with empty symbol table");
+        int depth = 0;
+        int node = root;
+        while (left(node) != NIL) {
+            path[depth++] = node;
+            node = left(node);
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, right(node));
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Removes the largest key and associated value from the symbol table.
+     */
+    public void deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("called deleteMax() with empty symbol table");
+        int depth = 0;
+        int node = root;
+        while (right(node) != NIL) {
+            path[depth++] = node;
+            node = right(node);
+        }
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, left(node));
+        release(node);
+        retrace(path, depth, -1);
+        assert check();
+    }
+
+    /**
+     * Returns the smallest key in the symbol table.
+     */
+    public Key min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        int node = root;
+        while (left(node) != NIL) node = left(node);
+        return key(node);
+    }
+
+    /**
+     * Returns the largest key in the symbol table.
+     */
+    public Key max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        int node = root;
+        while (right(node) != NIL) node = right(node);
+        return key(node);
+    }
+
+    /**
+     * Returns the largest key in the symbol table less than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key floor(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to floor() is null");
+        if (isEmpty()) throw new NoSuchElementException("called floor() with empty symbol table");
+        Key best = null;
+        int node = root;
+        while (node != NIL) {
+            Key k = key(node);
+            int cmp = key.compareTo(k);
+            if (cmp < 0) node = left(node);
+            else if (cmp > 0) {
+                best = k;
+                node = right(node);
+            }
+            else return k;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the smallest key in the symbol table greater than or equal to
+     * {@code key}, or {@code null} if there is none.
+     */
+    public Key ceiling(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to ceiling() is null");
+        if (isEmpty()) throw new NoSuchElementException("called ceiling() with empty symbol table");
+        Key best = null;
+        int node = root;
+        while (node != NIL) {
+            Key k = key(node);
+            int cmp = key.compareTo(k);
+            if (cmp > 0) node = right(node);
+            else if (cmp < 0) {
+                best = k;
+                node = left(node);
+            }
+            else return k;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of keys in the symbol table strictly less than
+     * {@code key}.
+     */
+    public int rank(Key key) {
+        if (key == null) throw new IllegalArgumentException("argument to rank() is null");
+        int rank = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = key.compareTo(key(node));
+            if (cmp < 0) node = left(node);
+            else if (cmp > 0) {
+                rank += 1 + size(left(node));
+                node = right(node);
+            }
+            else return rank + size(left(node));
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the key of the given rank.
+     */
+    public Key select(int k) {
+        if (k < 0 || k >= size()) throw new IllegalArgumentException("argument to select() is invalid: " + k);
+        int node = root;
+        while (true) {
+            int leftSize = size(left(node));
+            if (k < leftSize) node = left(node);
+            else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = right(node);
+            }
+            else return key(node);
+        }
+    }
+
+    /**
+     * Returns all keys in the symbol table, in order.  The keys are produced
+     * lazily; the symbol table should not be modified while an iteration is
+     * in progress.
+     */
+    public Iterable<Key> keys() {
+        return () -> new KeyIterator(null, null);
+    }
+
+    /**
+     * Returns all keys in the symbol table in the given range, in order.
+     */
+    public Iterable<Key> keys(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to keys() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to keys() is null");
+        return () -> new KeyIterator(lo, hi);
+    }
+
+    /**
+     * Iterates over keys in order between optional bounds, keeping a stack of
+     * at most one slot per level.
+     */
+    private class KeyIterator implements Iterator<Key> {
+        private final int[] stack = new int[MAX_DEPTH];
+        private int depth;
+        private final Key hi;
+
+        public KeyIterator(Key lo, Key hi) {
+            this.hi = hi;
+            int node = root;
+            while (node != NIL) {
+                int cmp = lo == null ? -1 : lo.compareTo(key(node));
+                if (cmp < 0) {
+                    stack[depth++] = node;
+                    node = left(node);
+                }
+                else if (cmp > 0) {
+                    node = right(node);
+                }
+                else {
+                    stack[depth++] = node;
+                    break;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            if (depth == 0) return false;
+            return hi == null || key(stack[depth - 1]).compareTo(hi) <= 0;
+        }
+
+        public Key next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int node = stack[--depth];
+            for (int x = right(node); x != NIL; x = left(x)) {
+                stack[depth++] = x;
+            }
+            return key(node);
+        }
+    }
+
+    /**
+     * Returns the number of keys in the symbol table in the given range.
+     */
+    public int size(Key lo, Key hi) {
+        if (lo == null) throw new IllegalArgumentException("first argument to size() is null");
+        if (hi == null) throw new IllegalArgumentException("second argument to size() is null");
+        if (lo.compareTo(hi) > 0) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Checks if the AVL tree invariants are fine.
+     */
+    private boolean check() {
+        if (!isBST()) StdOut.println("Symmetric order not consistent");
+        if (!isAVL()) StdOut.println("AVL property not consistent");
+        if (!isSizeConsistent()) StdOut.println("Subtree counts not consistent");
+        return isBST() && isAVL() && isSizeConsistent();
+    }
+
+    /**
+     * Checks if AVL property is consistent.
+     */
+    private boolean isAVL() {
+        return isAVL(root);
+    }
+
+    /**
+     * Checks if AVL property is consistent in the subtree.
+     */
+    private boolean isAVL(int node) {
+        if (node == NIL) return true;
+        int bf = balanceFactor(node);
+        if (bf > 1 || bf < -1) return false;
+        return isAVL(left(node)) && isAVL(right(node));
+    }
+
+    /**
+     * Checks if the symmetric order is consistent.
+     */
+    private boolean isBST() {
+        return isBST(root, null, null);
+    }
+
+    /**
+     * Checks if the tree rooted at node is a BST with all keys strictly between
+     * min and max (if min or max is null, treat as empty constraint).
+     */
+    private boolean isBST(int node, Key min, Key max) {
+        if (node == NIL) return true;
+        Key key = key(node);
+        if (min != null && key.compareTo(min) <= 0) return false;
+        if (max != null && key.compareTo(max) >= 0) return false;
+        return isBST(left(node), min, key) && isBST(right(node), key, max);
+    }
+
+    /**
+     * Checks if size is consistent.
+     */
+    private boolean isSizeConsistent() {
+        return isSizeConsistent(root);
+    }
+
+    /**
+     * Checks if the size of the subtree is consistent.
+     */
+    private boolean isSizeConsistent(int node) {
+        if (node == NIL) return true;
+        if (size(node) != size(left(node)) + size(right(node)) + 1) return false;
+        return isSizeConsistent(left(node)) && isSizeConsistent(right(node));
+    }
+}
@@ -1,19 +1,72 @@
 package program4;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 import stdlib.*;
 import algs13.Queue;
 /* ***********************************************************************
  *
  *  A symbol table implemented with a binary search tree.
  *
+ *  By default the tree is not balanced at all, so keys inserted in order
+ *  turn it into a linked list.  Constructed with Mode.SCAPEGOAT, it is
+ *  kept balanced as a scapegoat tree: an insert that lands deeper than
+ *  log n to the base 1/ALPHA walks back up to the deepest ancestor one of
+ *  whose subtrees holds more than ALPHA of its nodes, and rebuilds that
+ *  ancestor's subtree into a perfectly balanced one.  Deletes rebuild the
+ *  whole tree once it has shrunk below ALPHA of its largest size since
+ *  the last such rebuild.  Only the number of keys and that largest size
+ *  are kept, so the nodes carry no balance information.
+ *
+ *  Constructed with Mode.TREAP, it is a treap: every node also gets a
+ *  random priority when it is created, and the tree is kept in heap order
+ *  of priorities as well as in symmetric order of keys, by rotations on
+ *  insert and by merging the children of a deleted node.  The shape is
+ *  then that of a BST built by inserting the keys in random order, with
+ *  expected depth O(log n) whatever order they arrive in.  A treap also
+ *  supports split() and merge(), cutting off or appending a key range in
+ *  expected O(log n) time.  The nodes carry no sizes, so after a split the
+ *  number of keys on either side is left to be counted by the next call
+ *  to size().
+ *
+ *  Constructed with Mode.SPLAY, it is a splay tree: put and delete splay
+ *  the key's node to the root, top-down, and so by default does get, which
+ *  keeps recently used keys near the root at an amortized O(log n) per
+ *  operation.  setSplayInterval(k) makes get splay only on every k-th
+ *  call and otherwise just search, so that most reads leave the tree as
+ *  it is while frequently read keys still find their way up.
+ *
+ *  In any mode but TREAP, rebalance() rearranges the nodes in place into
+ *  a perfectly balanced tree with the Day-Stout-Warren algorithm, in O(n)
+ *  time without allocating.  A PLAIN tree can also be made to rebalance
+ *  itself whenever a get or put has to go deeper than a chosen multiple
+ *  of floor(log2 n) + 1; see setRebalanceFactor().
  *
  *************************************************************************/
 public class Program4BST<K extends Comparable<? super K>, V> {
+	// how the tree is kept balanced
+	public enum Mode { PLAIN, SCAPEGOAT, TREAP, SPLAY }
+
+	// the weight balance a scapegoat tree keeps, between 1/2 and 1
+	private static final double ALPHA = 2.0 / 3.0;
+	private static final double LOG_INV_ALPHA = Math.log(1 / ALPHA);
+
+	// the value of n when the number of keys is not known
+	private static final int UNKNOWN = -1;
+
 	private Node<K,V> root;             // root of BST
+	private final Mode mode;
+	private int n;                      // number of keys, or UNKNOWN after a treap split
+	private int maxN;                   // largest n since the tree was last rebuilt whole
+	private int splayInterval = 1;      // get splays on every splayInterval-th call in SPLAY mode
+	private int gets;                   // calls to get since it last splayed
+	private double rebalanceFactor;     // rebalance when a search goes deeper than this times floor(log2 n) + 1, if positive
+	private int depth;                  // depth at which the last plain get or put stopped
 
 	private static class Node<K extends Comparable<? super K>,V> {
 		public K key;       // sorted by key
 		public V val;             // associated data
 		public Node<K,V> left, right;  // left and right subtrees
+		public int priority;      // heap order, used in TREAP mode
 
 		public Node(K key, V val) {
 			this.key = key;
@@ -21,9 +74,39 @@ public class Program4BST<K extends Comparable<? super K>, V> {
 		}
 	}
 
+	public Program4BST() { this(Mode.PLAIN); }
+
+	public Program4BST(Mode mode) {
+		if (mode == null) throw new IllegalArgumentException("argument to Program4BST() is null");
+		this.mode = mode;
+	}
+
+	// in SPLAY mode, splay on only every interval-th get
+	public void setSplayInterval(int interval) {
+		if (interval < 1) throw new IllegalArgumentException("argument to setSplayInterval() is invalid: " + interval);
+		splayInterval = interval;
+		gets = 0;
+	}
+
+	// in PLAIN mode, rebalance() whenever a get or put reaches a depth greater
+	// than factor times (floor(log2 n) + 1), the number of bits in n, which is
+	// one more than the height of a perfectly balanced tree; 0 turns this off
+	public void setRebalanceFactor(double factor) {
+		if (mode != Mode.PLAIN) throw new UnsupportedOperationException("setRebalanceFactor() requires PLAIN mode");
+		if (factor != 0 && !(factor > 1)) throw new IllegalArgumentException("argument to setRebalanceFactor() is invalid: " + factor);
+		rebalanceFactor = factor;
+	}
+
 	// is the symbol table empty?
 	public boolean isEmpty() { return root == null; }
 
+	// number of key-value pairs in the symbol table
+	// counted the first time it is asked for after a treap split
+	public int size() {
+		if (n == UNKNOWN) n = count(root);
+		return n;
+	}
+
 	/* *********************************************************************
 	 *  Search BST for given key, and return associated value if found,
 	 *  return null if not found
@@ -34,14 +117,29 @@ public class Program4BST<K extends Comparable<? super K>, V> {
 	}
 
 	// return value associated with the given key, or null if no such key enodeists
-	public V get(K key) { return get(root, key); }
+	public V get(K key) {
+		if (mode == Mode.SPLAY) return getSplay(key);
+		V val = search(key);
+		checkDepth();
+		return val;
+	}
 
-	private V get(Node<K,V> node, K key) {
-		if (node == null) return null;
-		int cmp = key.compareTo(node.key);
-		if      (cmp < 0) return get(node.left, key);
-		else if (cmp > 0) return get(node.right, key);
-		else              return node.val;
+	// The plain search, insertion and deletion below walk down the tree in a
+	// loop, holding on to the parent of the current node so that its link can
+	// be rewired, and never recurse: a degenerate tree is as deep as it is
+	// large, far deeper than the call stack allows.
+	private V search(K key) {
+		Node<K,V> node = root;
+		int depth = 0;
+		while (node != null) {
+			int cmp = key.compareTo(node.key);
+			if      (cmp < 0) node = node.left;
+			else if (cmp > 0) node = node.right;
+			else              break;
+			depth++;
+		}
+		this.depth = depth;
+		return node == null ? null : node.val;
 	}
 
 	/* *********************************************************************
@@ -50,67 +148,433 @@ public class Program4BST<K extends Comparable<? super K>, V> {
 	 ***********************************************************************/
 	public void put(K key, V val) {
 		if (val == null) { delete(key); return; }
-		root = put(root, key, val);
+		if (mode == Mode.SCAPEGOAT) { putScapegoat(key, val); return; }
+		if (mode == Mode.TREAP) { root = putTreap(root, key, val); return; }
+		if (mode == Mode.SPLAY) { putSplay(key, val); return; }
+		insert(key, val);
+		checkDepth();
 	}
 
-	private Node<K,V> put(Node<K,V> node, K key, V val) {
-		if (node == null) return new Node<>(key, val);
-		int cmp = key.compareTo(node.key);
-		if      (cmp < 0)
-			node.left  = put(node.left,  key, val);
-		else if (cmp > 0)
-			node.right = put(node.right, key, val);
-		else
-			node.val   = val;
-		return node;
+	private void insert(K key, V val) {
+		Node<K,V> parent = null;
+		Node<K,V> node = root;
+		int cmp = 0;
+		int depth = 0;
+		while (node != null) {
+			cmp = key.compareTo(node.key);
+			if (cmp == 0) {
+				node.val = val;
+				this.depth = depth;
+				return;
+			}
+			parent = node;
+			node = cmp < 0 ? node.left : node.right;
+			depth++;
+		}
+		node = new Node<>(key, val);
+		n++;
+		this.depth = depth;
+		if      (parent == null) root = node;
+		else if (cmp < 0)        parent.left  = node;
+		else                     parent.right = node;
+	}
+
+	// rebalance if the last get or put went too deep; 32 - numberOfLeadingZeros(n)
+	// is floor(log2 n) + 1
+	private void checkDepth() {
+		if (rebalanceFactor > 0 && depth > rebalanceFactor * (32 - Integer.numberOfLeadingZeros(n))) rebalance();
 	}
 
 	public void delete(K key) {
-		root = delete(root, key);
+		if (mode == Mode.TREAP) { root = deleteTreap(root, key); return; }
+		if (mode == Mode.SPLAY) { deleteSplay(key); return; }
+		remove(key);
+		if (mode == Mode.SCAPEGOAT && n < ALPHA * maxN) {
+			root = rebuild(root, n);
+			maxN = n;
+		}
 	}
 
-	private Node<K,V> delete(Node<K,V> node, K key) {
-		if (node == null) return null;
+	private void remove(K key) {
+		Node<K,V> parent = null;
+		Node<K,V> node = root;
+		while (node != null) {
+			int cmp = key.compareTo(node.key);
+			if (cmp == 0) break;
+			// Key to delete is to the left or to the right of node.
+			parent = node;
+			node = cmp < 0 ? node.left : node.right;
+		}
+		if (node == null) return;
+		// node contains the key we wish to delete.
+		n--;
+		if (node.left != null && node.right != null) {
+			// node has two children.  Find the node with the largest key to
+			// the left, copy its key and value to node, and unlink it instead;
+			// it has no right child.
+			Node<K,V> leftTreeMaxParent = node;
+			Node<K,V> leftTreeMaxNode = node.left;
+			while (leftTreeMaxNode.right != null) {
+				leftTreeMaxParent = leftTreeMaxNode;
+				leftTreeMaxNode = leftTreeMaxNode.right;
+			}
+			node.key = leftTreeMaxNode.key;
+			node.val = leftTreeMaxNode.val;
+			if (leftTreeMaxParent == node) leftTreeMaxParent.left  = leftTreeMaxNode.left;
+			else                           leftTreeMaxParent.right = leftTreeMaxNode.left;
+			return;
+		}
+		// node is a leaf or has only one child, which takes its place.
+		Node<K,V> child = node.left != null ? node.left : node.right;
+		if      (parent == null)      root = child;
+		else if (parent.left == node) parent.left  = child;
+		else                          parent.right = child;
+	}
+
+	/* *********************************************************************
+	 *  Scapegoat insertion: a plain insert that remembers its search path,
+	 *  then, if the new node is too deep, a walk back up the path to find
+	 *  the subtree to rebuild.  Sizes are counted on the way up, which is
+	 *  paid for by the rebuild that follows.
+	 ***********************************************************************/
+	@SuppressWarnings("unchecked")
+	private void putScapegoat(K key, V val) {
+		Node<K,V>[] path = (Node<K,V>[]) new Node[16];
+		int depth = 0;
+		Node<K,V> node = root;
+		while (node != null) {
+			int cmp = key.compareTo(node.key);
+			if (cmp == 0) { node.val = val; return; }
+			if (depth == path.length) path = Arrays.copyOf(path, 2 * depth);
+			path[depth++] = node;
+			node = cmp < 0 ? node.left : node.right;
+		}
+		Node<K,V> child = new Node<>(key, val);
+		if (depth == 0) root = child;
+		else if (key.compareTo(path[depth - 1].key) < 0) path[depth - 1].left = child;
+		else path[depth - 1].right = child;
+		n++;
+		maxN = Math.max(maxN, n);
+		if (depth <= Math.log(n) / LOG_INV_ALPHA) return;
+
+		// Find the deepest ancestor whose heavier child is too heavy.
+		int childSize = 1;
+		for (int i = depth - 1; i >= 0; i--) {
+			Node<K,V> parent = path[i];
+			int size = childSize + 1 + count(parent.left == child ? parent.right : parent.left);
+			if (childSize > ALPHA * size) {
+				Node<K,V> rebuilt = rebuild(parent, size);
+				if (i == 0) root = rebuilt;
+				else if (path[i - 1].left == parent) path[i - 1].left = rebuilt;
+				else path[i - 1].right = rebuilt;
+				return;
+			}
+			childSize = size;
+			child = parent;
+		}
+	}
+
+	// number of nodes in the subtree
+	private int count(Node<K,V> node) {
+		if (node == null) return 0;
+		return 1 + count(node.left) + count(node.right);
+	}
+
+	// rearrange the size nodes of the subtree into a perfectly balanced tree
+	@SuppressWarnings("unchecked")
+	private Node<K,V> rebuild(Node<K,V> node, int size) {
+		Node<K,V>[] nodes = (Node<K,V>[]) new Node[size];
+		flatten(node, nodes, 0);
+		return build(nodes, 0, size - 1);
+	}
+
+	// store the nodes of the subtree in key order starting at nodes[i]
+	private int flatten(Node<K,V> node, Node<K,V>[] nodes, int i) {
+		if (node == null) return i;
+		i = flatten(node.left, nodes, i);
+		nodes[i++] = node;
+		return flatten(node.right, nodes, i);
+	}
+
+	// link nodes[lo..hi] into a balanced tree and return its root
+	private Node<K,V> build(Node<K,V>[] nodes, int lo, int hi) {
+		if (lo > hi) return null;
+		int mid = (lo + hi) >>> 1;
+		Node<K,V> node = nodes[mid];
+		node.left = build(nodes, lo, mid - 1);
+		node.right = build(nodes, mid + 1, hi);
+		return node;
+	}
+
+	/* *********************************************************************
+	 *  Treap insertion and deletion.  A new node is created as a leaf and
+	 *  rotated up while its priority is higher than its parent's; a
+	 *  deleted node is replaced by the merge of its two subtrees.
+	 ***********************************************************************/
+	private Node<K,V> putTreap(Node<K,V> node, K key, V val) {
+		if (node == null) {
+			Node<K,V> leaf = new Node<>(key, val);
+			leaf.priority = ThreadLocalRandom.current().nextInt();
+			if (n != UNKNOWN) n++;
+			return leaf;
+		}
 		int cmp = key.compareTo(node.key);
 		if (cmp < 0) {
-			// Key to delete is to the left of node.
-			node.left  = delete(node.left,  key);
-			return node;
+			node.left = putTreap(node.left, key, val);
+			if (node.left.priority > node.priority) node = rotateRight(node);
 		}
 		else if (cmp > 0) {
-			// Key to delete is to the right of node.
-			node.right = delete(node.right, key);
-			return node;
+			node.right = putTreap(node.right, key, val);
+			if (node.right.priority > node.priority) node = rotateLeft(node);
 		}
+		else node.val = val;
+		return node;
+	}
+
+	private Node<K,V> deleteTreap(Node<K,V> node, K key) {
+		if (node == null) return null;
+		int cmp = key.compareTo(node.key);
+		if (cmp < 0) node.left = deleteTreap(node.left, key);
+		else if (cmp > 0) node.right = deleteTreap(node.right, key);
 		else {
-			// node contains the key we wish to delete.
-			if (node.left == null && node.right == null) {
-				// node is a leaf.
-				return null;
+			if (n != UNKNOWN) n--;
+			return merge(node.left, node.right);
+		}
+		return node;
+	}
+
+	// make the left child of node the root of its subtree
+	private Node<K,V> rotateRight(Node<K,V> node) {
+		Node<K,V> child = node.left;
+		node.left = child.right;
+		child.right = node;
+		return child;
+	}
+
+	// make the right child of node the root of its subtree
+	private Node<K,V> rotateLeft(Node<K,V> node) {
+		Node<K,V> child = node.right;
+		node.right = child.left;
+		child.left = node;
+		return child;
+	}
+
+	/* *********************************************************************
+	 *  Treap split and merge.
+	 ***********************************************************************/
+	// remove all keys greater than or equal to key and return them as a new
+	// treap, in expected O(log n) time; only available in TREAP mode
+	public Program4BST<K,V> split(K key) {
+		if (mode != Mode.TREAP) throw new UnsupportedOperationException("split() requires TREAP mode");
+		if (key == null) throw new IllegalArgumentException("argument to split() is null");
+		// Walk down the search path for key, hanging each node, with the
+		// subtree on its far side, off the lower or the upper treap.  Every
+		// node hung is a descendant of the one before it, so heap order holds.
+		Node<K,V> lower = new Node<>(null, null);  // lower treap hangs off lower.right
+		Node<K,V> upper = new Node<>(null, null);  // upper treap hangs off upper.left
+		Node<K,V> lowerTail = lower, upperTail = upper;
+		Node<K,V> node = root;
+		while (node != null) {
+			if (node.key.compareTo(key) < 0) {
+				lowerTail.right = node;
+				lowerTail = node;
+				node = node.right;
+			}
+			else {
+				upperTail.left = node;
+				upperTail = node;
+				node = node.left;
+			}
+		}
+		lowerTail.right = null;
+		upperTail.left = null;
+		root = lower.right;
+		Program4BST<K,V> that = new Program4BST<>(Mode.TREAP);
+		that.root = upper.left;
+		// Counting either side would take time proportional to its size.
+		n = UNKNOWN;
+		that.n = UNKNOWN;
+		return that;
+	}
+
+	// move all keys of that, which must all be greater than those of this
+	// treap, into this one and leave that empty; only available in TREAP mode
+	public void merge(Program4BST<K,V> that) {
+		if (mode != Mode.TREAP) throw new UnsupportedOperationException("merge() requires TREAP mode");
+		if (that == null) throw new IllegalArgumentException("argument to merge() is null");
+		if (that.mode != Mode.TREAP) throw new IllegalArgumentException("argument to merge() is not in TREAP mode");
+		if (that == this || that.root == null) return;
+		if (root != null && max(root).key.compareTo(min(that.root).key) >= 0) {
+			throw new IllegalArgumentException("keys of argument to merge() are not all greater");
+		}
+		root = merge(root, that.root);
+		n = n == UNKNOWN || that.n == UNKNOWN ? UNKNOWN : n + that.n;
+		that.root = null;
+		that.n = 0;
+	}
+
+	// merge two treaps where every key in left is less than every key in right
+	private Node<K,V> merge(Node<K,V> left, Node<K,V> right) {
+		if (left == null) return right;
+		if (right == null) return left;
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return left;
+		}
+		right.left = merge(left, right.left);
+		return right;
+	}
+
+	private Node<K,V> min(Node<K,V> node) {
+		while (node.left != null) node = node.left;
+		return node;
+	}
+
+	private Node<K,V> max(Node<K,V> node) {
+		while (node.right != null) node = node.right;
+		return node;
+	}
+
+	/* *********************************************************************
+	 *  Splay tree operations.  A splay tree can be arbitrarily deep for a
+	 *  while, so everything here is iterative.
+	 ***********************************************************************/
+	private V getSplay(K key) {
+		if (root == null) return null;
+		if (++gets >= splayInterval) {
+			gets = 0;
+			root = splay(root, key);
+			return key.compareTo(root.key) == 0 ? root.val : null;
+		}
+		Node<K,V> node = root;
+		while (node != null) {
+			int cmp = key.compareTo(node.key);
+			if      (cmp < 0) node = node.left;
+			else if (cmp > 0) node = node.right;
+			else              return node.val;
+		}
+		return null;
+	}
+
+	private void putSplay(K key, V val) {
+		if (root == null) { root = new Node<>(key, val); n++; return; }
+		root = splay(root, key);
+		int cmp = key.compareTo(root.key);
+		if (cmp == 0) { root.val = val; return; }
+		Node<K,V> node = new Node<>(key, val);
+		n++;
+		if (cmp < 0) {
+			node.left = root.left;
+			node.right = root;
+			root.left = null;
+		}
+		else {
+			node.right = root.right;
+			node.left = root;
+			root.right = null;
+		}
+		root = node;
+	}
+
+	private void deleteSplay(K key) {
+		if (root == null) return;
+		root = splay(root, key);
+		if (key.compareTo(root.key) != 0) return;
+		n--;
+		if (root.left == null) { root = root.right; return; }
+		Node<K,V> right = root.right;
+		// Every key on the left is less than key, so splaying for it brings
+		// the largest of them up with no right child.
+		root = splay(root.left, key);
+		root.right = right;
+	}
+
+	// top-down splay: bring the node with key, or the last node on its search
+	// path, to the root of the subtree and return it
+	private Node<K,V> splay(Node<K,V> node, K key) {
+		Node<K,V> header = new Node<>(null, null);
+		Node<K,V> lower = header;    // largest node known to be less than key
+		Node<K,V> upper = header;    // smallest node known to be greater than key
+		while (true) {
+			int cmp = key.compareTo(node.key);
+			if (cmp < 0) {
+				if (node.left == null) break;
+				if (key.compareTo(node.left.key) < 0) {
+					node = rotateRight(node);
+					if (node.left == null) break;
+				}
+				upper.left = node;
+				upper = node;
+				node = node.left;
 			}
-			else if (node.left == null) {
-				// node has only a right child.
-				return node.right;
+			else if (cmp > 0) {
+				if (node.right == null) break;
+				if (key.compareTo(node.right.key) > 0) {
+					node = rotateLeft(node);
+					if (node.right == null) break;
+				}
+				lower.right = node;
+				lower = node;
+				node = node.right;
 			}
-			else if (node.right == null) {
-				// node has only a left child.
-				return node.left;
+			else break;
+		}
+		lower.right = node.left;
+		upper.left = node.right;
+		node.left = header.right;
+		node.right = header.left;
+		return node;
+	}
+
+	/* *********************************************************************
+	 *  Day-Stout-Warren rebalancing.  Right rotations first straighten the
+	 *  tree into a vine, a path of right children in key order; rounds of
+	 *  left rotations along the vine then fold it into a balanced tree.
+	 *  Only a few local variables are used and no node is allocated.
+	 ***********************************************************************/
+	// rearrange the tree into a perfectly balanced one, in O(n) time; not
+	// available in TREAP mode, since it would break the heap order
+	public void rebalance() {
+		if (mode == Mode.TREAP) throw new UnsupportedOperationException("rebalance() would break the heap order of a treap");
+		int size = treeToVine();
+		// Fold the excess over a complete tree first, so that the rounds that
+		// follow each halve a vine whose length is a power of 2 less 1.
+		int complete = Integer.highestOneBit(size + 1) - 1;
+		compress(size - complete);
+		for (int m = complete / 2; m > 0; m /= 2) compress(m);
+		if (mode == Mode.SCAPEGOAT) maxN = n;
+	}
+
+	// straighten the tree into a vine and return its length
+	private int treeToVine() {
+		int size = 0;
+		Node<K,V> tail = null;   // last node of the vine so far; root heads it
+		Node<K,V> rest = root;   // the part still to straighten
+		while (rest != null) {
+			if (rest.left == null) {
+				tail = rest;
+				rest = rest.right;
+				size++;
 			}
 			else {
-				// node has two children.
-				Node<K,V> leftTreeManodeNode = node.left;
-				// Find the node with the largest key to the left.
-				while (leftTreeManodeNode.right != null) {
-					leftTreeManodeNode = leftTreeManodeNode.right;
-				}
-				// Copy that largest key and its value to node.
-				K leftTreeManodeKey = leftTreeManodeNode.key;
-				node.key = leftTreeManodeNode.key;
-				node.val = leftTreeManodeNode.val;
-				// Delete the node copied from.
-				node.right = delete(node.right, leftTreeManodeKey);
-				return node;
+				rest = rotateRight(rest);
+				if (tail == null) root = rest;
+				else tail.right = rest;
 			}
 		}
+		return size;
+	}
+
+	// rotate left at every other node of the first 2 * count nodes of the
+	// vine, making each odd node the left child of the even node after it
+	private void compress(int count) {
+		Node<K,V> parent = null;   // null while rotating at the root
+		for (int i = 0; i < count; i++) {
+			Node<K,V> child = parent == null ? root : parent.right;
+			Node<K,V> rotated = rotateLeft(child);
+			if (parent == null) root = rotated;
+			else parent.right = rotated;
+			parent = rotated;
+		}
 	}
 }
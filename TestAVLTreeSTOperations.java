@@ -0,0 +1,314 @@
+package avltree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import stdlib.StdOut;
+
+public class TestAVLTreeSTOperations {
+    private static final int OPS = 50_000;
+    private static final int RANGE = 1 << 10;
+    private static final int BULK_ROUNDS = 300;
+
+    /**
+     * The aggregator kept by every table, summing the values.
+     */
+    private static final Aggregator<Long, Long> SUM = Aggregator.sum(val -> val);
+
+    /**
+     * Checks {@code AVLTreeST} against a TreeMap: single-key operations and
+     * queries on ordinary and persistent tables, snapshots, aggregates,
+     * spliterators and streams, split, join and the range operations, and
+     * the set operations and putAll.  A seed can be given as the first
+     * argument.
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 2;
+        Random random = new Random(seed);
+        operations(random, false);
+        operations(random, true);
+        splitJoin(random);
+        setOperations(random);
+        StdOut.println("AVLTreeST agrees with TreeMap");
+    }
+
+    /**
+     * Applies random puts, deletes and single-descent updates to a table and
+     * a map, comparing them as it goes.  A persistent table also has its
+     * snapshots taken now and then, which must still hold the pairs of
+     * their time at the end.
+     */
+    private static void operations(Random random, boolean persistent) {
+        AVLTreeST<Integer, Long> st = new AVLTreeST<Integer, Long>(persistent, SUM);
+        TreeMap<Integer, Long> map = new TreeMap<Integer, Long>();
+        List<AVLTreeST<Integer, Long>> snapshots = new ArrayList<AVLTreeST<Integer, Long>>();
+        List<TreeMap<Integer, Long>> copies = new ArrayList<TreeMap<Integer, Long>>();
+        for (int i = 0; i < OPS; i++) {
+            int key = randomKey(random);
+            long val = random.nextInt(1000) - 500;
+            switch (random.nextInt(14)) {
+                case 0:
+                case 1:
+                    st.put(key, val);
+                    map.put(key, val);
+                    break;
+                case 2:
+                    st.delete(key);
+                    map.remove(key);
+                    break;
+                case 3:
+                    agree("getAndPut(" + key + ")", st.getAndPut(key, val), map.put(key, val));
+                    break;
+                case 4:
+                    agree("remove(" + key + ")", st.remove(key), map.remove(key));
+                    break;
+                case 5:
+                    agree("putIfAbsent(" + key + ")", st.putIfAbsent(key, val), map.putIfAbsent(key, val));
+                    break;
+                case 6:
+                    agree("replace(" + key + ")", st.replace(key, val), map.replace(key, val));
+                    break;
+                case 7:
+                    agree("computeIfAbsent(" + key + ")", st.computeIfAbsent(key, k -> val), map.computeIfAbsent(key, k -> val));
+                    break;
+                case 8:
+                    agree("compute(" + key + ")", st.compute(key, (k, old) -> old == null || old > 0 ? val : null),
+                            map.compute(key, (k, old) -> old == null || old > 0 ? val : null));
+                    break;
+                case 9:
+                    agree("merge(" + key + ")", st.merge(key, val, (a, b) -> a + b == 0 ? null : a + b),
+                            map.merge(key, val, (a, b) -> a + b == 0 ? null : a + b));
+                    break;
+                case 10:
+                    if (!map.isEmpty()) {
+                        if (random.nextBoolean()) {
+                            st.deleteMin();
+                            map.pollFirstEntry();
+                        }
+                        else {
+                            st.deleteMax();
+                            map.pollLastEntry();
+                        }
+                    }
+                    break;
+                default:
+                    query(st, map, key, randomKey(random), random.nextDouble());
+            }
+            if (persistent && random.nextInt(OPS / 20) == 0) {
+                snapshots.add(st.snapshot());
+                copies.add(new TreeMap<Integer, Long>(map));
+            }
+        }
+        same("table", st, map);
+        traverse(st, map);
+        for (int i = 0; i < snapshots.size(); i++) {
+            same("snapshot " + i, snapshots.get(i), copies.get(i));
+        }
+    }
+
+    /**
+     * Compares the answers of the table and the map to the queries about the
+     * given keys and fraction.
+     */
+    private static void query(AVLTreeST<Integer, Long> st, TreeMap<Integer, Long> map, int key, int other, double q) {
+        agree("size()", st.size(), map.size());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        int lo = Math.min(key, other);
+        int hi = Math.max(key, other);
+        NavigableMap<Integer, Long> range = map.subMap(lo, true, hi, true);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), range.size());
+        agree("keys(" + lo + ", " + hi + ")", st.keys(lo, hi).iterator(), range.keySet().iterator());
+        agree("keysAfter(" + lo + ", " + hi + ")", st.keysAfter(lo, hi).iterator(), map.subMap(lo, false, hi, true).keySet().iterator());
+        agree("aggregate(" + lo + ", " + hi + ")", st.aggregate(SUM, lo, hi), sum(range));
+        agree("aggregate()", st.aggregate(SUM), sum(map));
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        agree("floor(" + key + ")", st.floor(key), map.floorKey(key));
+        agree("ceiling(" + key + ")", st.ceiling(key), map.ceilingKey(key));
+        int k = map.headMap(key).size();
+        if (k < map.size()) agree("select(" + k + ")", st.select(k), map.ceilingKey(key));
+        int n = map.size();
+        int rank = Math.max((int) Math.ceil(q * n) - 1, 0);
+        agree("quantile(" + q + ")", st.quantile(q), st.select(rank));
+        agree("median()", st.median(), st.select((n - 1) / 2));
+        int from = Math.min(k, rank);
+        int to = Math.max(k, rank);
+        agree("keysByRank(" + from + ", " + to + ")", st.keysByRank(from, to).iterator(),
+                new ArrayList<Integer>(map.keySet()).subList(from, to).iterator());
+    }
+
+    /**
+     * Compares the traversals of the table with those of the map: streams,
+     * sequential and parallel, and a spliterator split as far as it goes.
+     */
+    private static void traverse(AVLTreeST<Integer, Long> st, TreeMap<Integer, Long> map) {
+        List<Integer> keys = new ArrayList<Integer>(map.keySet());
+        agree("keys()", st.keys().iterator(), keys.iterator());
+        agree("keyStream()", st.keyStream().iterator(), keys.iterator());
+        agree("parallelKeyStream()", st.parallelKeyStream().collect(Collectors.toList()).iterator(), keys.iterator());
+        agree("stream()", st.stream().map(Map.Entry::getKey).iterator(), keys.iterator());
+        agree("parallelStream() sum", st.parallelStream().mapToLong(Map.Entry::getValue).sum(), sum(map));
+        for (Map.Entry<Integer, Long> entry : st.stream().collect(Collectors.toList())) {
+            agree("stream() value of " + entry.getKey(), entry.getValue(), map.get(entry.getKey()));
+        }
+        List<Integer> split = new ArrayList<Integer>();
+        splitAll(st.keySpliterator(), split);
+        agree("keySpliterator() split", split.iterator(), keys.iterator());
+    }
+
+    /**
+     * Splits the spliterator as far as it goes, checking the sizes it
+     * reports, and adds the keys of the pieces in order.
+     */
+    private static void splitAll(Spliterator<Integer> spliterator, List<Integer> keys) {
+        long size = spliterator.estimateSize();
+        int before = keys.size();
+        Spliterator<Integer> prefix = spliterator.trySplit();
+        if (prefix != null) {
+            agree("split sizes", prefix.estimateSize() + spliterator.estimateSize(), size);
+            splitAll(prefix, keys);
+            splitAll(spliterator, keys);
+        }
+        else spliterator.forEachRemaining(keys::add);
+        agree("spliterator size", (long) (keys.size() - before), size);
+    }
+
+    /**
+     * Cuts random tables apart and puts them back together with split, join,
+     * deleteRange and extractRange.
+     */
+    private static void splitJoin(Random random) {
+        for (int round = 0; round < BULK_ROUNDS; round++) {
+            TreeMap<Integer, Long> map = randomMap(random, random.nextInt(RANGE));
+            AVLTreeST<Integer, Long> st = table(map, random.nextBoolean());
+            int key = randomKey(random);
+            AVLTreeST<Integer, Long> upper = st.split(key);
+            same("split lower half", st, map.headMap(key, false));
+            same("split upper half", upper, map.tailMap(key, true));
+
+            Long val = map.remove(key);
+            upper.delete(key);
+            AVLTreeST<Integer, Long> joined = AVLTreeST.join(st, key, val == null ? 1L : val, upper);
+            map.put(key, val == null ? 1L : val);
+            same("join", joined, map);
+            agree("join left empty", st.isEmpty() && upper.isEmpty(), true);
+
+            int lo = randomKey(random);
+            int hi = lo + random.nextInt(RANGE / 2);
+            TreeMap<Integer, Long> range = new TreeMap<Integer, Long>(map.subMap(lo, true, hi, true));
+            if (random.nextBoolean()) {
+                agree("deleteRange(" + lo + ", " + hi + ")", joined.deleteRange(lo, hi), range.size());
+            }
+            else {
+                same("extractRange(" + lo + ", " + hi + ")", joined.extractRange(lo, hi), range);
+            }
+            map.subMap(lo, true, hi, true).clear();
+            same("after removing a range", joined, map);
+        }
+    }
+
+    /**
+     * Combines random tables with union, intersection and difference, and
+     * adds sorted batches, both small and large next to the table, with
+     * putAll.
+     */
+    private static void setOperations(Random random) {
+        for (int round = 0; round < BULK_ROUNDS; round++) {
+            boolean persistent = random.nextBoolean();
+            TreeMap<Integer, Long> a = randomMap(random, random.nextInt(RANGE));
+            TreeMap<Integer, Long> b = randomMap(random, random.nextInt(round % 2 == 0 ? 16 : RANGE));
+            AVLTreeST<Integer, Long> st = table(a, persistent);
+            TreeMap<Integer, Long> expected = new TreeMap<Integer, Long>(a);
+            switch (round % 4) {
+                case 0:
+                    st.union(table(b, persistent));
+                    expected.putAll(b);
+                    same("union", st, expected);
+                    break;
+                case 1:
+                    st.intersection(table(b, persistent));
+                    expected.keySet().retainAll(b.keySet());
+                    same("intersection", st, expected);
+                    break;
+                case 2:
+                    st.difference(table(b, persistent));
+                    expected.keySet().removeAll(b.keySet());
+                    same("difference", st, expected);
+                    break;
+                default:
+                    st.putAll(b.keySet().toArray(new Integer[0]), b.values().toArray(new Long[0]));
+                    expected.putAll(b);
+                    same("putAll", st, expected);
+            }
+            agree("aggregate() after set operation", st.aggregate(SUM), sum(expected));
+        }
+    }
+
+    /**
+     * Returns a map of about n random keys to random values.
+     */
+    private static TreeMap<Integer, Long> randomMap(Random random, int n) {
+        TreeMap<Integer, Long> map = new TreeMap<Integer, Long>();
+        for (int i = 0; i < n; i++) map.put(randomKey(random), (long) random.nextInt(1000));
+        return map;
+    }
+
+    /**
+     * Returns a table holding the pairs of the map.
+     */
+    private static AVLTreeST<Integer, Long> table(TreeMap<Integer, Long> map, boolean persistent) {
+        AVLTreeST<Integer, Long> st = new AVLTreeST<Integer, Long>(persistent, SUM);
+        for (Map.Entry<Integer, Long> entry : map.entrySet()) st.put(entry.getKey(), entry.getValue());
+        return st;
+    }
+
+    private static int randomKey(Random random) {
+        return random.nextInt(2 * RANGE) - RANGE;
+    }
+
+    private static long sum(Map<Integer, Long> map) {
+        long sum = 0;
+        for (long val : map.values()) sum += val;
+        return sum;
+    }
+
+    /**
+     * Checks that the table holds exactly the pairs of the map.
+     */
+    private static void same(String what, AVLTreeST<Integer, Long> st, Map<Integer, Long> map) {
+        agree(what + " size()", st.size(), map.size());
+        Iterator<Integer> keys = st.keys().iterator();
+        for (Map.Entry<Integer, Long> entry : map.entrySet()) {
+            Integer key = keys.hasNext() ? keys.next() : null;
+            agree(what + " key", key, entry.getKey());
+            agree(what + " get(" + key + ")", st.get(key), entry.getValue());
+        }
+        agree(what + " end of keys()", keys.hasNext(), false);
+    }
+
+    /**
+     * Checks that two iterations produce the same keys.
+     */
+    private static void agree(String what, Iterator<Integer> actual, Iterator<Integer> expected) {
+        while (expected.hasNext()) {
+            agree(what, actual.hasNext() ? actual.next() : null, expected.next());
+        }
+        agree("end of " + what, actual.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
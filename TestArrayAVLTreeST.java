@@ -0,0 +1,86 @@
+package avltree;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import stdlib.StdOut;
+
+public class TestArrayAVLTreeST {
+    private static final int OPS = 100_000;
+    private static final int RANGE = 1 << 11;
+
+    /**
+     * Puts, deletes and looks up random keys in an {@code ArrayAVLTreeST},
+     * starting from a small capacity so that its arrays grow and its free
+     * slots are reused, and checks every answer against a TreeMap.  A seed
+     * can be given as the first argument.
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 7;
+        Random random = new Random(seed);
+        ArrayAVLTreeST<Integer, Integer> st = new ArrayAVLTreeST<Integer, Integer>(4);
+        TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < OPS; i++) {
+            int key = random.nextInt(2 * RANGE) - RANGE;
+            int op = random.nextInt(10);
+            if (op < 4) {
+                st.put(key, i);
+                map.put(key, i);
+            }
+            else if (op < 6) {
+                st.delete(key);
+                map.remove(key);
+            }
+            else if (op == 6 && !map.isEmpty()) {
+                if (random.nextBoolean()) {
+                    st.deleteMin();
+                    map.pollFirstEntry();
+                }
+                else {
+                    st.deleteMax();
+                    map.pollLastEntry();
+                }
+            }
+            else check(st, map, key, random.nextInt(2 * RANGE) - RANGE);
+        }
+        check(st, map, 0, 0);
+        agree("keys()", st.keys().iterator(), map.keySet().iterator());
+        StdOut.printf("%d operations agree with TreeMap, %d keys left%n", OPS, st.size());
+    }
+
+    /**
+     * Compares the answers of the table and the map for the given keys.
+     */
+    private static void check(ArrayAVLTreeST<Integer, Integer> st, TreeMap<Integer, Integer> map, int key, int other) {
+        agree("size()", st.size(), map.size());
+        agree("isEmpty()", st.isEmpty(), map.isEmpty());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        int lo = Math.min(key, other);
+        int hi = Math.max(key, other);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        agree("keys(" + lo + ", " + hi + ")", st.keys(lo, hi).iterator(), map.subMap(lo, true, hi, true).keySet().iterator());
+        agree("keysAfter(" + lo + ", " + hi + ")", st.keysAfter(lo, hi).iterator(), map.subMap(lo, false, hi, true).keySet().iterator());
+    }
+
+    /**
+     * Checks that two iterations produce the same keys.
+     */
+    private static void agree(String what, Iterator<Integer> actual, Iterator<Integer> expected) {
+        while (expected.hasNext()) {
+            agree(what, actual.hasNext() ? actual.next() : null, expected.next());
+        }
+        agree("end of " + what, actual.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package avltree;
+
+import java.util.Random;
+
+import stdlib.StdOut;
+
+public class TestConcurrentAVLTreeST {
+    private static final int KEYS = 1 << 20;
+    private static final int OPS_PER_THREAD = 1_000_000;
+    private static final int CHECK_KEYS = 2000;
+    private static final int CHECK_ROUNDS = 20;
+
+    /**
+     * Checks that the tree is balanced once updates stop, then benchmarks
+     * {@code ConcurrentAVLTreeST} against an {@code AVLTreeST} guarded by a
+     * single lock, for several read/write mixes.  The number of threads can
+     * be given as the first argument.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        quiescent(Math.max(threads, 4));
+        StdOut.printf("%d threads, %d keys, %d operations per thread%n", threads, KEYS, OPS_PER_THREAD);
+        for (int readPercent : new int[] { 100, 90, 50, 10 }) {
+            AVLTreeST<Integer, Integer> avl = new AVLTreeST<Integer, Integer>();
+            ConcurrentAVLTreeST<Integer, Integer> concurrent = new ConcurrentAVLTreeST<Integer, Integer>();
+            for (int i = 0; i < KEYS; i += 2) {
+                avl.put(i, i);
+                concurrent.put(i, i);
+            }
+            double locked = run(threads, readPercent, new Table() {
+                public void get(int key) { synchronized (avl) { avl.get(key); } }
+                public void put(int key) { synchronized (avl) { avl.put(key, key); } }
+                public void delete(int key) { synchronized (avl) { avl.delete(key); } }
+            });
+            double optimistic = run(threads, readPercent, new Table() {
+                public void get(int key) { concurrent.get(key); }
+                public void put(int key) { concurrent.put(key, key); }
+                public void delete(int key) { concurrent.delete(key); }
+            });
+            StdOut.printf("%3d%% reads: synchronized AVLTreeST %8.0f ops/ms, ConcurrentAVLTreeST %8.0f ops/ms%n",
+                    readPercent, locked, optimistic);
+        }
+    }
+
+    /**
+     * Has several threads put and delete keys from a small range, so that
+     * their repairs overlap and routing nodes come and go, and checks the
+     * heights, balance, order and count of the tree once they have all
+     * finished.  The first round is run by a single thread.
+     */
+    private static void quiescent(int threads) throws InterruptedException {
+        for (int round = 0; round < CHECK_ROUNDS; round++) {
+            ConcurrentAVLTreeST<Integer, Integer> st = new ConcurrentAVLTreeST<Integer, Integer>();
+            Thread[] workers = new Thread[round == 0 ? 1 : threads];
+            for (int t = 0; t < workers.length; t++) {
+                long seed = round * threads + t;
+                workers[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < OPS_PER_THREAD / 10; i++) {
+                        int key = random.nextInt(CHECK_KEYS);
+                        if (random.nextInt(3) == 0) st.delete(key);
+                        else st.put(key, key);
+                    }
+                });
+            }
+            for (Thread worker : workers) worker.start();
+            for (Thread worker : workers) worker.join();
+            if (!st.check()) throw new IllegalStateException("tree not an AVL tree after round " + round);
+        }
+        StdOut.printf("%d rounds of updates left an AVL tree%n", CHECK_ROUNDS);
+    }
+
+    /**
+     * The operations being timed.
+     */
+    private interface Table {
+        void get(int key);
+        void put(int key);
+        void delete(int key);
+    }
+
+    /**
+     * Runs a random mix of operations on the table from several threads and
+     * returns the throughput in operations per millisecond.  Writes are split
+     * evenly between puts and deletes so the table keeps its size.
+     */
+    private static double run(int threads, int readPercent, Table table) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    int key = random.nextInt(KEYS);
+                    int op = random.nextInt(100);
+                    if (op < readPercent) table.get(key);
+                    else if ((op & 1) == 0) table.put(key);
+                    else table.delete(key);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) worker.join();
+        double millis = (System.nanoTime() - start) / 1e6;
+        return threads * (double) OPS_PER_THREAD / millis;
+    }
+}
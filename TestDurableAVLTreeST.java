@@ -0,0 +1,115 @@
+package avltree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import stdlib.StdOut;
+
+public class TestDurableAVLTreeST {
+    private static final int ROUNDS = 40;
+    private static final int KEYS = 200;
+
+    /**
+     * Opens a {@code DurableAVLTreeST} again and again on the same directory,
+     * each time checking that it recovered the pairs of a TreeMap that saw
+     * the same changes, then applying a random batch of puts and deletes to
+     * both.  A round ends with a clean close, with a crash, or with a crash
+     * that leaves a torn record at the end of the log, which recovery must
+     * drop.  Only rounds that close cleanly take checkpoints, so that no
+     * abandoned checkpoint is still writing when the next round recovers.  A
+     * seed can be given as the first argument.
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 18;
+        Random random = new Random(seed);
+        Path directory = Files.createTempDirectory("durable");
+        TreeMap<String, Long> map = new TreeMap<String, Long>();
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                DurableAVLTreeST<String, Long> st = new DurableAVLTreeST<String, Long>(directory, Codec.STRING, Codec.LONG, 0);
+                check(st, map, "recovery in round " + round);
+                int end = random.nextInt(3);
+                int ops = random.nextInt(300);
+                for (int i = 0; i < ops; i++) {
+                    String key = "k" + random.nextInt(KEYS);
+                    int op = random.nextInt(10);
+                    if (op < 6) {
+                        long val = random.nextLong();
+                        st.put(key, val);
+                        map.put(key, val);
+                    }
+                    else if (op < 8) {
+                        st.delete(key);
+                        map.remove(key);
+                    }
+                    else if (!map.isEmpty() && op == 8) {
+                        st.deleteMin();
+                        map.pollFirstEntry();
+                    }
+                    else if (!map.isEmpty()) {
+                        st.deleteMax();
+                        map.pollLastEntry();
+                    }
+                    if (end == 0 && random.nextInt(100) == 0) st.checkpoint();
+                }
+                check(st, map, "round " + round);
+                if (end == 0) st.close();
+                else if (end == 1) tearLog(directory);
+            }
+        }
+        finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+        StdOut.printf("%d rounds of changes, closes and crashes recovered%n", ROUNDS);
+    }
+
+    /**
+     * Appends the start of a record that was never finished to the newest
+     * log, as a crash in the middle of writing it would leave.
+     */
+    private static void tearLog(Path directory) throws IOException {
+        Path newest = null;
+        long generation = -1;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith("log-")) continue;
+                long g = Long.parseLong(name.substring("log-".length()));
+                if (g > generation) {
+                    generation = g;
+                    newest = file;
+                }
+            }
+        }
+        Files.write(newest, new byte[] { 0, 0, 0, 20, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Checks that the table holds exactly the pairs of the map.
+     */
+    private static void check(DurableAVLTreeST<String, Long> st, TreeMap<String, Long> map, String when) {
+        if (st.size() != map.size()) {
+            throw new IllegalStateException("size() returned " + st.size() + " after " + when + ", TreeMap says " + map.size());
+        }
+        AVLTreeST<String, Long> snapshot = st.snapshot();
+        Iterator<String> keys = snapshot.keys().iterator();
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            String key = keys.hasNext() ? keys.next() : null;
+            if (!entry.getKey().equals(key) || !entry.getValue().equals(st.get(key))) {
+                throw new IllegalStateException("table has " + key + "=" + st.get(key) + " after " + when
+                        + ", TreeMap has " + entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        if (keys.hasNext()) throw new IllegalStateException("table has extra key " + keys.next() + " after " + when);
+    }
+}
@@ -0,0 +1,80 @@
+package avltree;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import stdlib.StdOut;
+
+public class TestFrozenST {
+    private static final int KEYS = 5000;
+    private static final int QUERIES = 5000;
+
+    /**
+     * Freezes {@code AVLTreeST}s of several sizes, the empty one included,
+     * and checks the answers of the {@code FrozenST}s against a TreeMap
+     * holding the same pairs.  The table is changed after freezing to make
+     * sure the frozen copy does not follow it.  A seed can be given as the
+     * first argument.
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 16;
+        Random random = new Random(seed);
+        for (int n : new int[] { 0, 1, 2, 3, 7, 8, 100, KEYS }) {
+            AVLTreeST<Integer, String> st = new AVLTreeST<Integer, String>();
+            TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+            while (map.size() < n) {
+                int key = random.nextInt(4 * n) - 2 * n;
+                st.put(key, "v" + key);
+                map.put(key, "v" + key);
+            }
+            FrozenST<Integer, String> frozen = st.freeze();
+            st.put(Integer.MAX_VALUE, "later");
+            int range = 4 * n + 2;
+            for (int i = 0; i < QUERIES; i++) {
+                check(frozen, map, random.nextInt(range) - range / 2, random.nextInt(range) - range / 2);
+            }
+        }
+        StdOut.println("frozen tables agree with TreeMap");
+    }
+
+    /**
+     * Compares the answers of the frozen table and the map for the given
+     * keys.
+     */
+    private static void check(FrozenST<Integer, String> st, TreeMap<Integer, String> map, int key, int other) {
+        agree("size()", st.size(), map.size());
+        agree("isEmpty()", st.isEmpty(), map.isEmpty());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        int lo = Math.min(key, other);
+        int hi = Math.max(key, other);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        agree("keys(" + lo + ", " + hi + ")", st.keys(lo, hi).iterator(), map.subMap(lo, true, hi, true).keySet().iterator());
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        agree("floor(" + key + ")", st.floor(key), map.floorKey(key));
+        agree("ceiling(" + key + ")", st.ceiling(key), map.ceilingKey(key));
+        int k = map.headMap(key).size();
+        if (k < map.size()) agree("select(" + k + ")", st.select(k), map.ceilingKey(key));
+        agree("keys()", st.keys().iterator(), map.keySet().iterator());
+    }
+
+    /**
+     * Checks that two iterations produce the same keys.
+     */
+    private static void agree(String what, Iterator<Integer> actual, Iterator<Integer> expected) {
+        while (expected.hasNext()) {
+            agree(what, actual.hasNext() ? actual.next() : null, expected.next());
+        }
+        agree("end of " + what, actual.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package avltree;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import stdlib.StdOut;
+
+public class TestLongAVLTreeST {
+    private static final int OPS = 100_000;
+    private static final int RANGE = 1 << 11;
+
+    /**
+     * Puts, deletes and looks up random keys in a {@code LongAVLTreeST},
+     * among them negative keys and the extreme longs, and checks every
+     * answer against a TreeMap, then does the same for the
+     * {@code FrozenLongST} that freeze() makes of it.  A seed can be given
+     * as the first argument.
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 8;
+        Random random = new Random(seed);
+        LongAVLTreeST<Integer> st = new LongAVLTreeST<Integer>(4);
+        TreeMap<Long, Integer> map = new TreeMap<Long, Integer>();
+        for (int i = 0; i < OPS; i++) {
+            long key = randomKey(random);
+            int op = random.nextInt(10);
+            if (op < 4) {
+                st.put(key, i);
+                map.put(key, i);
+            }
+            else if (op < 6) {
+                st.delete(key);
+                map.remove(key);
+            }
+            else if (op == 6 && !map.isEmpty()) {
+                if (random.nextBoolean()) {
+                    st.deleteMin();
+                    map.pollFirstEntry();
+                }
+                else {
+                    st.deleteMax();
+                    map.pollLastEntry();
+                }
+            }
+            else check(st, map, key, randomKey(random));
+        }
+        agree("keys()", st.keys(), map.keySet().iterator());
+
+        FrozenLongST<Integer> frozen = st.freeze();
+        for (int i = 0; i < OPS / 10; i++) check(frozen, map, randomKey(random), randomKey(random));
+        check(frozen, map, Long.MIN_VALUE, Long.MAX_VALUE);
+        agree("frozen keys()", frozen.keys(), map.keySet().iterator());
+        StdOut.printf("%d operations agree with TreeMap, %d keys left and frozen%n", OPS, st.size());
+    }
+
+    /**
+     * Returns a key from a small range around 0, or now and then one of the
+     * extreme longs.
+     */
+    private static long randomKey(Random random) {
+        if (random.nextInt(100) == 0) return random.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE;
+        return random.nextInt(2 * RANGE) - RANGE;
+    }
+
+    /**
+     * Compares the answers of the table and the map for the given keys.
+     */
+    private static void check(LongAVLTreeST<Integer> st, TreeMap<Long, Integer> map, long key, long other) {
+        agree("size()", st.size(), map.size());
+        agree("isEmpty()", st.isEmpty(), map.isEmpty());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        long lo = Math.min(key, other);
+        long hi = Math.max(key, other);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        agree("keys(" + lo + ", " + hi + ")", st.keys(lo, hi), map.subMap(lo, true, hi, true).keySet().iterator());
+        agree("keysAfter(" + lo + ", " + hi + ")", st.keysAfter(lo, hi), map.subMap(lo, false, hi, true).keySet().iterator());
+    }
+
+    /**
+     * Compares the answers of the frozen table and the map for the given
+     * keys.
+     */
+    private static void check(FrozenLongST<Integer> st, TreeMap<Long, Integer> map, long key, long other) {
+        agree("frozen size()", st.size(), map.size());
+        agree("frozen get(" + key + ")", st.get(key), map.get(key));
+        agree("frozen contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("frozen rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        if (map.isEmpty()) return;
+        agree("frozen min()", st.min(), map.firstKey());
+        agree("frozen max()", st.max(), map.lastKey());
+        Long floor = map.floorKey(key);
+        try {
+            agree("frozen floor(" + key + ")", st.floor(key), floor);
+        }
+        catch (NoSuchElementException e) {
+            agree("frozen floor(" + key + ")", null, floor);
+        }
+        Long ceiling = map.ceilingKey(key);
+        try {
+            agree("frozen ceiling(" + key + ")", st.ceiling(key), ceiling);
+        }
+        catch (NoSuchElementException e) {
+            agree("frozen ceiling(" + key + ")", null, ceiling);
+        }
+        int k = map.headMap(key).size();
+        if (k < map.size()) agree("frozen select(" + k + ")", st.select(k), map.ceilingKey(key));
+        long lo = Math.min(key, other);
+        long hi = Math.max(key, other);
+        agree("frozen size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        agree("frozen keys(" + lo + ", " + hi + ")", st.keys(lo, hi), map.subMap(lo, true, hi, true).keySet().iterator());
+    }
+
+    /**
+     * Checks that two iterations produce the same keys.
+     */
+    private static void agree(String what, Iterator<Long> actual, Iterator<Long> expected) {
+        while (expected.hasNext()) {
+            agree(what, actual.hasNext() ? actual.next() : null, expected.next());
+        }
+        agree("end of " + what, actual.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
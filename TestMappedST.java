@@ -0,0 +1,95 @@
+package avltree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import stdlib.StdOut;
+
+public class TestMappedST {
+    private static final int KEYS = 5000;
+    private static final int QUERIES = 5000;
+
+    /**
+     * Writes snapshots of {@code AVLTreeST}s of several sizes, the empty one
+     * included, with Codec.INTEGER keys on both sides of 0 and Codec.STRING
+     * values, and checks the answers of the {@code MappedST}s opened on them
+     * against a TreeMap holding the same pairs.  Every snapshot is written
+     * over the previous one, and the table is changed after writing it to
+     * make sure the mapped file does not follow it.  A seed can be given as
+     * the first argument.
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 17;
+        Random random = new Random(seed);
+        Path directory = Files.createTempDirectory("mapped");
+        Path path = directory.resolve("snapshot");
+        try {
+            for (int n : new int[] { 0, 1, 2, 3, 7, 8, 100, KEYS }) {
+                AVLTreeST<Integer, String> st = new AVLTreeST<Integer, String>();
+                TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+                while (map.size() < n) {
+                    int key = random.nextInt(4 * n) - 2 * n;
+                    String val = "v" + key + "x".repeat(random.nextInt(20));
+                    st.put(key, val);
+                    map.put(key, val);
+                }
+                st.writeSnapshot(path, Codec.INTEGER, Codec.STRING);
+                MappedST<Integer, String> mapped = AVLTreeST.openMapped(path, Codec.INTEGER, Codec.STRING);
+                st.put(Integer.MAX_VALUE, "later");
+                int range = 4 * n + 2;
+                for (int i = 0; i < QUERIES; i++) {
+                    check(mapped, map, random.nextInt(range) - range / 2, random.nextInt(range) - range / 2);
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(directory);
+        }
+        StdOut.println("mapped snapshots agree with TreeMap");
+    }
+
+    /**
+     * Compares the answers of the mapped table and the map for the given
+     * keys.
+     */
+    private static void check(MappedST<Integer, String> st, TreeMap<Integer, String> map, int key, int other) {
+        agree("size()", st.size(), map.size());
+        agree("isEmpty()", st.isEmpty(), map.isEmpty());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        int lo = Math.min(key, other);
+        int hi = Math.max(key, other);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        agree("keys(" + lo + ", " + hi + ")", st.keys(lo, hi).iterator(), map.subMap(lo, true, hi, true).keySet().iterator());
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        agree("floor(" + key + ")", st.floor(key), map.floorKey(key));
+        agree("ceiling(" + key + ")", st.ceiling(key), map.ceilingKey(key));
+        int k = map.headMap(key).size();
+        if (k < map.size()) agree("select(" + k + ")", st.select(k), map.ceilingKey(key));
+        agree("keys()", st.keys().iterator(), map.keySet().iterator());
+    }
+
+    /**
+     * Checks that two iterations produce the same keys.
+     */
+    private static void agree(String what, Iterator<Integer> actual, Iterator<Integer> expected) {
+        while (expected.hasNext()) {
+            agree(what, actual.hasNext() ? actual.next() : null, expected.next());
+        }
+        agree("end of " + what, actual.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
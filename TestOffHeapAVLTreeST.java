@@ -0,0 +1,87 @@
+package avltree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import stdlib.StdOut;
+
+public class TestOffHeapAVLTreeST {
+    private static final int OPS = 50_000;
+    private static final int RANGE = 1 << 12;
+
+    /**
+     * Puts, deletes and looks up random keys, negative ones included, in an
+     * {@code OffHeapAVLTreeST} stored with Codec.INTEGER and in a TreeMap,
+     * and checks that every answer agrees.  A seed can be given as the first
+     * argument.
+     */
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 19;
+        Random random = new Random(seed);
+        OffHeapAVLTreeST<Integer, Integer> st = new OffHeapAVLTreeST<Integer, Integer>(Codec.INTEGER, Codec.INTEGER);
+        TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < OPS; i++) {
+            int key = random.nextInt(2 * RANGE) - RANGE;
+            int op = random.nextInt(10);
+            if (op < 4) {
+                int val = random.nextInt();
+                st.put(key, val);
+                map.put(key, val);
+            }
+            else if (op < 6) {
+                st.delete(key);
+                map.remove(key);
+            }
+            else if (op == 6 && !map.isEmpty()) {
+                if (random.nextBoolean()) {
+                    st.deleteMin();
+                    map.pollFirstEntry();
+                }
+                else {
+                    st.deleteMax();
+                    map.pollLastEntry();
+                }
+            }
+            else check(st, map, key, random.nextInt(2 * RANGE) - RANGE);
+        }
+        check(st, map, 0, 0);
+        StdOut.printf("%d operations agree with TreeMap, %d keys left%n", OPS, st.size());
+    }
+
+    /**
+     * Compares the answers of the table and the map for the given keys.
+     */
+    private static void check(OffHeapAVLTreeST<Integer, Integer> st, TreeMap<Integer, Integer> map, int key, int other) {
+        agree("size()", st.size(), map.size());
+        agree("get(" + key + ")", st.get(key), map.get(key));
+        agree("contains(" + key + ")", st.contains(key), map.containsKey(key));
+        if (map.isEmpty()) return;
+        agree("min()", st.min(), map.firstKey());
+        agree("max()", st.max(), map.lastKey());
+        agree("floor(" + key + ")", st.floor(key), map.floorKey(key));
+        agree("ceiling(" + key + ")", st.ceiling(key), map.ceilingKey(key));
+        agree("rank(" + key + ")", st.rank(key), map.headMap(key).size());
+        Integer floor = map.floorKey(key);
+        if (floor != null) {
+            int rank = map.headMap(floor).size();
+            agree("select(" + rank + ")", st.select(rank), floor);
+        }
+        int lo = Math.min(key, other);
+        int hi = Math.max(key, other);
+        agree("size(" + lo + ", " + hi + ")", st.size(lo, hi), map.subMap(lo, true, hi, true).size());
+        Iterator<Integer> keys = st.keys(lo, hi).iterator();
+        for (Map.Entry<Integer, Integer> entry : map.subMap(lo, true, hi, true).entrySet()) {
+            agree("keys(" + lo + ", " + hi + ")", keys.hasNext() ? keys.next() : null, entry.getKey());
+            agree("get(" + entry.getKey() + ")", st.get(entry.getKey()), entry.getValue());
+        }
+        agree("end of keys(" + lo + ", " + hi + ")", keys.hasNext(), false);
+    }
+
+    private static void agree(String what, Object actual, Object expected) {
+        if (actual == null ? expected != null : !actual.equals(expected)) {
+            throw new IllegalStateException(what + " returned " + actual + ", TreeMap says " + expected);
+        }
+    }
+}
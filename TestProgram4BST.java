@@ -0,0 +1,178 @@
+package program4;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import avltree.AVLTreeST;
+import stdlib.StdOut;
+
+public class TestProgram4BST {
+    private static final int KEYS = 1 << 20;
+    private static final int OPS = 5_000_000;
+    private static final double EXPONENT = 1.2;
+    private static final int SEQUENTIAL_KEYS = 10_000_000;
+    private static final int SEQUENTIAL_PLAIN_KEYS = 50_000;
+
+    /**
+     * Checks treap split and merge, then runs the Zipfian benchmark, or the
+     * sequential-key one if the first argument is "sequential".
+     */
+    public static void main(String[] args) {
+        splitMerge();
+        if (args.length > 0 && args[0].equals("sequential")) sequential();
+        else zipf();
+    }
+
+    /**
+     * Benchmarks the splay mode of {@code Program4BST}, splaying on every
+     * get and on every 8th, against the AVL trees and a treap under a
+     * Zipfian workload: key ranks are drawn with probability proportional
+     * to 1 / rank^EXPONENT and mapped to keys in random order, and one
+     * operation in twenty is a put.
+     */
+    private static void zipf() {
+        Random random = new Random(23);
+        int[] keys = new int[KEYS];
+        for (int i = 0; i < KEYS; i++) keys[i] = i;
+        for (int i = KEYS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        double[] cdf = new double[KEYS];
+        double total = 0;
+        for (int i = 0; i < KEYS; i++) {
+            total += 1 / Math.pow(i + 1, EXPONENT);
+            cdf[i] = total;
+        }
+        int[] workload = new int[OPS];
+        int hot = 0;
+        for (int i = 0; i < OPS; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            if (rank < 0) rank = -rank - 1;
+            if (rank < KEYS / 100) hot++;
+            workload[i] = keys[Math.min(rank, KEYS - 1)];
+        }
+        StdOut.printf("%d keys, %d operations, %.1f%% of them on the hottest 1%% of keys%n",
+                KEYS, OPS, 100.0 * hot / OPS);
+
+        for (int round = 0; round < 2; round++) {
+            AVLTreeST<Integer, Integer> avl = new AVLTreeST<Integer, Integer>();
+            Program4AVLTree<Integer, Integer> program4avl = new Program4AVLTree<Integer, Integer>();
+            Program4BST<Integer, Integer> treap = new Program4BST<Integer, Integer>(Program4BST.Mode.TREAP);
+            Program4BST<Integer, Integer> splay = new Program4BST<Integer, Integer>(Program4BST.Mode.SPLAY);
+            Program4BST<Integer, Integer> splay8 = new Program4BST<Integer, Integer>(Program4BST.Mode.SPLAY);
+            splay8.setSplayInterval(8);
+            for (int key : keys) {
+                avl.put(key, key);
+                program4avl.put(key, key);
+                treap.put(key, key);
+                splay.put(key, key);
+                splay8.put(key, key);
+            }
+            StdOut.printf("AVLTreeST            %6.0f ops/ms%n", run(workload, new Table() {
+                public Integer get(int key) { return avl.get(key); }
+                public void put(int key) { avl.put(key, key); }
+            }));
+            StdOut.printf("Program4AVLTree      %6.0f ops/ms%n", run(workload, new Table() {
+                public Integer get(int key) { return program4avl.get(key); }
+                public void put(int key) { program4avl.put(key, key); }
+            }));
+            StdOut.printf("treap                %6.0f ops/ms%n", run(workload, new Table() {
+                public Integer get(int key) { return treap.get(key); }
+                public void put(int key) { treap.put(key, key); }
+            }));
+            StdOut.printf("splay                %6.0f ops/ms%n", run(workload, new Table() {
+                public Integer get(int key) { return splay.get(key); }
+                public void put(int key) { splay.put(key, key); }
+            }));
+            StdOut.printf("splay every 8th get  %6.0f ops/ms%n", run(workload, new Table() {
+                public Integer get(int key) { return splay8.get(key); }
+                public void put(int key) { splay8.put(key, key); }
+            }));
+        }
+    }
+
+    /**
+     * Splits a treap at every point and merges it back, checking the sizes
+     * and contents of both halves.
+     */
+    private static void splitMerge() {
+        int n = 100;
+        for (int at = -1; at <= n; at++) {
+            Program4BST<Integer, Integer> st = new Program4BST<Integer, Integer>(Program4BST.Mode.TREAP);
+            for (int i = 0; i < n; i++) st.put(i, i);
+            Program4BST<Integer, Integer> upper = st.split(at);
+            int expected = Math.max(0, Math.min(n, at));
+            if (st.size() != expected || upper.size() != n - expected) {
+                throw new IllegalStateException("split(" + at + ") gave sizes " + st.size() + " and " + upper.size());
+            }
+            if (st.isEmpty() != (expected == 0) || upper.isEmpty() != (expected == n)) {
+                throw new IllegalStateException("split(" + at + ") gave sizes that disagree with isEmpty()");
+            }
+            for (int i = 0; i < n; i++) {
+                Program4BST<Integer, Integer> half = i < at ? st : upper;
+                if (half.get(i) == null) throw new IllegalStateException("split(" + at + ") lost key " + i);
+            }
+            st.merge(upper);
+            if (st.size() != n || upper.size() != 0 || !upper.isEmpty()) {
+                throw new IllegalStateException("merge() after split(" + at + ") gave sizes " + st.size() + " and " + upper.size());
+            }
+            for (int i = 0; i < n; i++) {
+                if (st.get(i) != i) throw new IllegalStateException("merge() after split(" + at + ") lost key " + i);
+            }
+        }
+        StdOut.println("treap split and merge sizes check out");
+    }
+
+    /**
+     * Puts, gets and deletes keys in ascending order, which makes a plain
+     * BST a path as long as the table is large.  This used to overflow the
+     * stack after some 20k keys.  Every mode runs with SEQUENTIAL_KEYS keys
+     * except PLAIN, whose operations take time proportional to the number
+     * of keys already there, so that it runs with SEQUENTIAL_PLAIN_KEYS.
+     */
+    private static void sequential() {
+        for (Program4BST.Mode mode : Program4BST.Mode.values()) {
+            int n = mode == Program4BST.Mode.PLAIN ? SEQUENTIAL_PLAIN_KEYS : SEQUENTIAL_KEYS;
+            Program4BST<Integer, Integer> st = new Program4BST<Integer, Integer>(mode);
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) st.put(i, i);
+            long put = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                if (st.get(i) != i) throw new IllegalStateException("wrong value for key " + i);
+            }
+            long get = System.nanoTime();
+            for (int i = 0; i < n; i++) st.delete(i);
+            long delete = System.nanoTime();
+            if (!st.isEmpty()) throw new IllegalStateException("not empty after deleting every key");
+            StdOut.printf("%-9s %,10d keys: put %6d ms, get %6d ms, delete %6d ms%n", mode, n,
+                    (put - start) / 1000000, (get - put) / 1000000, (delete - get) / 1000000);
+        }
+    }
+
+    /**
+     * The operations being timed.
+     */
+    private interface Table {
+        Integer get(int key);
+        void put(int key);
+    }
+
+    /**
+     * Runs the workload against the table and returns the throughput in
+     * operations per millisecond.
+     */
+    private static double run(int[] workload, Table table) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < workload.length; i++) {
+            if (i % 20 == 0) table.put(workload[i]);
+            else sum += table.get(workload[i]);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        if (sum == 42) StdOut.println();
+        return workload.length / millis;
+    }
+}